@@ -0,0 +1,491 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static java.text.MessageFormat.format;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * A persistent inverted index from annotation resources (such as
+ * {@code https://identifiers.org/kegg.compound/C00031}) to all species in a
+ * collection of models that are annotated with it by {@code BQB_IS}.
+ * <p>
+ * The index is stored in a directory with three parts:
+ * <ul>
+ * <li>{@code manifest.tsv} lists each model file with its MD5 checksum, size
+ * and modification time.
+ * <li>{@code postings/<md5>.tsv} holds the species annotations extracted from
+ * a file with this checksum. On update, only files whose checksum is not yet
+ * known are parsed again.
+ * <li>{@code annotations.idx} is a binary file with a sorted table of all
+ * resources and their postings, which is memory-mapped for lookups by binary
+ * search. It must not exceed 2 GB.
+ * </ul>
+ * Resources are normalized before indexing and lookup (see
+ * {@link #normalize(String)}), so that different notations of the same
+ * identifiers.org URI are found.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class AnnotationIndex implements Closeable {
+
+  private static final String MANIFEST = "manifest.tsv";
+  private static final String POSTINGS = "postings";
+  private static final String INDEX = "annotations.idx";
+  private static final String TSV_EXTENSION = ".tsv";
+  /** Only files with these extensions (in any case) are indexed */
+  private static final String SBML_EXTENSIONS[] = {".xml", ".sbml", ".xml.gz", ".sbml.gz"};
+
+  private static final int MAGIC = 0x414e4958;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 16;
+  private static final int ENTRY_SIZE = 24;
+
+  /** A {@link Logger} for this class */
+  private static final Logger logger = Logger.getLogger(AnnotationIndex.class.getName());
+
+  private final RandomAccessFile file;
+  private final MappedByteBuffer buffer;
+  private final int keyCount;
+
+  /**
+   * @param args
+   *        {@code build <collection> <index>}: creates or updates the index
+   *        in the given directory for all model files within the collection
+   *        directory; option {@code --threads=n} limits the number of files
+   *        parsed in parallel.
+   *        {@code query <index> <resource>...}: prints all species that are
+   *        annotated with the given resources.
+   * @throws IOException
+   * @throws XMLStreamException
+   * @throws NoSuchAlgorithmException
+   */
+  public static void main(String[] args) throws IOException, XMLStreamException, NoSuchAlgorithmException {
+    Arguments arguments = new Arguments(args);
+    String command = arguments.get(0);
+    if (command.equals("build")) {
+      build(new File(arguments.get(1)), new File(arguments.get(2)),
+        arguments.getOption("threads", Runtime.getRuntime().availableProcessors()));
+    } else if (command.equals("query")) {
+      AnnotationIndex index = new AnnotationIndex(new File(arguments.get(1)));
+      try {
+        for (String resource : arguments.getPositional().subList(2, arguments.size())) {
+          for (String posting : index.lookup(resource)) {
+            System.out.printf("%s\t%s\n", resource, posting);
+          }
+        }
+      } finally {
+        index.close();
+      }
+    } else {
+      throw new IllegalArgumentException(format("Unknown command ''{0}''", command));
+    }
+  }
+
+  /**
+   * Opens an existing index for lookups.
+   *
+   * @param indexDir the directory of the index.
+   * @throws IOException
+   */
+  public AnnotationIndex(File indexDir) throws IOException {
+    file = new RandomAccessFile(new File(indexDir, INDEX), "r");
+    buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+    buffer.order(ByteOrder.BIG_ENDIAN);
+    if ((buffer.getInt(0) != MAGIC) || (buffer.getInt(4) != VERSION)) {
+      file.close();
+      throw new IOException(format("{0} is not an annotation index", indexDir.getAbsolutePath()));
+    }
+    keyCount = buffer.getInt(8);
+  }
+
+  /**
+   * @param resource an annotation resource in any notation understood by
+   *        {@link #normalize(String)}.
+   * @return all species annotated with this resource, each as tab-separated
+   *         model path (relative to the collection), compartment and species
+   *         identifier.
+   */
+  public List<String> lookup(String resource) {
+    String key = normalize(resource);
+    int low = 0, high = keyCount - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int entry = HEADER_SIZE + mid * ENTRY_SIZE;
+      int cmp = readString((int) buffer.getLong(entry), buffer.getInt(entry + 8)).compareTo(key);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        int count = buffer.getInt(entry + 12);
+        int offset = (int) buffer.getLong(entry + 16);
+        List<String> postings = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+          int length = buffer.getInt(offset);
+          postings.add(readString(offset + 4, length));
+          offset += 4 + length;
+        }
+        return postings;
+      }
+    }
+    return Collections.emptyList();
+  }
+
+  /**
+   * @return the number of distinct resources in this index.
+   */
+  public int size() {
+    return keyCount;
+  }
+
+  /**
+   * @param offset
+   * @param length
+   * @return the UTF-8 string at the given position of the index.
+   */
+  private String readString(int offset, int length) {
+    byte bytes[] = new byte[length];
+    ByteBuffer view = buffer.duplicate();
+    view.position(offset);
+    view.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public void close() throws IOException {
+    file.close();
+  }
+
+  /**
+   * Brings a resource into a canonical form: the URI scheme and the host
+   * {@code identifiers.org} are removed, and a path of the form
+   * {@code collection/ID} becomes {@code collection:ID}, unless the identifier
+   * already contains its own prefix (as in {@code chebi/CHEBI:4167}). Hence,
+   * {@code https://identifiers.org/kegg.compound/C00031},
+   * {@code http://identifiers.org/kegg.compound:C00031}, and
+   * {@code kegg.compound:C00031} are all equivalent.
+   *
+   * @param resource
+   * @return the normalized resource.
+   */
+  public static String normalize(String resource) {
+    String key = resource.trim();
+    int scheme = key.indexOf("://");
+    if (scheme >= 0) {
+      key = key.substring(scheme + 3);
+    }
+    if (key.startsWith("identifiers.org/")) {
+      key = key.substring("identifiers.org/".length());
+      int slash = key.indexOf('/');
+      if (slash > 0) {
+        String id = key.substring(slash + 1);
+        key = id.indexOf(':') >= 0 ? id : key.substring(0, slash) + ':' + id;
+      }
+    }
+    return key;
+  }
+
+  /**
+   * Creates or updates the index of all model files in the given collection.
+   * Only files that are new or whose content has changed are parsed; the
+   * postings of files that are no longer part of the collection are removed.
+   * Model files are recognized by their extension, the index directory itself
+   * is skipped if it is located within the collection. Files that cannot be
+   * parsed are reported and left out of the index.
+   *
+   * @param collection the directory with the model files (searched
+   *        recursively).
+   * @param indexDir the directory of the index.
+   * @param threads the maximal number of files to be parsed in parallel.
+   * @throws IOException
+   * @throws XMLStreamException
+   * @throws NoSuchAlgorithmException
+   */
+  public static void build(File collection, File indexDir, int threads)
+      throws IOException, XMLStreamException, NoSuchAlgorithmException {
+    File postingsDir = new File(indexDir, POSTINGS);
+    if (!postingsDir.exists()) {
+      postingsDir.mkdirs();
+    }
+    File manifestFile = new File(indexDir, MANIFEST);
+    Map<String, String[]> previous = readManifest(manifestFile);
+
+    final Path root = collection.toPath();
+    final Path indexPath = indexDir.toPath().toAbsolutePath().normalize();
+    List<Path> paths;
+    try (Stream<Path> stream = Files.walk(root)) {
+      paths = stream.filter(p -> Files.isRegularFile(p) && isModelFile(p.getFileName().toString())
+          && !p.toAbsolutePath().normalize().startsWith(indexPath))
+          .sorted().collect(Collectors.toList());
+    }
+
+    // Determine the checksum of each file, reusing it if the file appears unchanged.
+    Map<String, String[]> manifest = new LinkedHashMap<String, String[]>();
+    Map<String, File> toParse = new LinkedHashMap<String, File>();
+    for (Path path : paths) {
+      File model = path.toFile();
+      String name = root.relativize(path).toString().replace(File.separatorChar, '/');
+      String size = Long.toString(model.length());
+      String modified = Long.toString(model.lastModified());
+      String old[] = previous.get(name);
+      String md5 = (old != null) && old[1].equals(size) && old[2].equals(modified) ? old[0] : TissueModelExtractor.checksum(model);
+      manifest.put(name, new String[] {md5, size, modified});
+      if (!new File(postingsDir, md5 + TSV_EXTENSION).exists()) {
+        toParse.put(md5, model);
+      }
+    }
+    logger.info(format("{0,number,integer} model files, {1,number,integer} to be parsed", manifest.size(), toParse.size()));
+    Set<String> failed = extractPostings(toParse, postingsDir, threads);
+    manifest.values().removeIf(value -> failed.contains(value[0]));
+
+    Writer writer = Files.newBufferedWriter(manifestFile.toPath(), StandardCharsets.UTF_8);
+    try {
+      for (Map.Entry<String, String[]> entry : manifest.entrySet()) {
+        writer.write(entry.getKey() + '\t' + String.join("\t", entry.getValue()) + '\n');
+      }
+    } finally {
+      writer.close();
+    }
+
+    // Remove postings that no file in the collection refers to any longer.
+    Set<String> used = new HashSet<String>();
+    for (String[] value : manifest.values()) {
+      used.add(value[0] + TSV_EXTENSION);
+    }
+    for (File postings : postingsDir.listFiles()) {
+      if (!used.contains(postings.getName())) {
+        postings.delete();
+      }
+    }
+
+    writeIndex(manifest, postingsDir, new File(indexDir, INDEX));
+  }
+
+  /**
+   * @param name
+   * @return {@code true} if the file name has one of the extensions of SBML
+   *         files and is not hidden.
+   */
+  private static boolean isModelFile(String name) {
+    if (name.startsWith(".")) {
+      return false;
+    }
+    String lowerCase = name.toLowerCase(Locale.ROOT);
+    for (String extension : SBML_EXTENSIONS) {
+      if (lowerCase.endsWith(extension)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param manifestFile
+   * @return for each model path its checksum, size and modification time.
+   * @throws IOException
+   */
+  private static Map<String, String[]> readManifest(File manifestFile) throws IOException {
+    Map<String, String[]> manifest = new LinkedHashMap<String, String[]>();
+    if (manifestFile.exists()) {
+      BufferedReader reader = Files.newBufferedReader(manifestFile.toPath(), StandardCharsets.UTF_8);
+      try {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          String columns[] = line.split("\t");
+          if (columns.length == 4) {
+            manifest.put(columns[0], new String[] {columns[1], columns[2], columns[3]});
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    return manifest;
+  }
+
+  /**
+   * Parses the given files in parallel and writes their postings, one file
+   * per checksum.
+   *
+   * @param toParse
+   * @param postingsDir
+   * @param threads
+   * @return the checksums of all files that could not be parsed.
+   * @throws IOException
+   * @throws XMLStreamException
+   */
+  private static Set<String> extractPostings(Map<String, File> toParse, final File postingsDir, int threads)
+      throws IOException, XMLStreamException {
+    final Set<String> failed = Collections.synchronizedSet(new HashSet<String>());
+    if (toParse.isEmpty()) {
+      return failed;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, toParse.size())));
+    List<Future<Void>> futures = new ArrayList<Future<Void>>(toParse.size());
+    for (final Map.Entry<String, File> entry : toParse.entrySet()) {
+      futures.add(executor.submit(() -> {
+        File tmp = new File(postingsDir, entry.getKey() + ".tmp");
+        final BufferedWriter writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8);
+        try {
+          ExtractSpeciesIDs.extract(entry.getValue(), null, null, a -> {
+            try {
+              String compartment = a.getCompartment() != null ? a.getCompartment() : "";
+              for (String resource : a.getResources()) {
+                writer.write(normalize(resource) + '\t' + compartment + '\t' + a.getSpecies() + '\n');
+              }
+            } catch (IOException exc) {
+              throw new RuntimeException(exc);
+            }
+          });
+        } catch (XMLStreamException | IOException exc) {
+          // exceptions of the writer are wrapped above, so this file is damaged
+          logger.warning(format("Skipping {0}: {1}", entry.getValue().getAbsolutePath(), exc.getLocalizedMessage()));
+          failed.add(entry.getKey());
+          writer.close();
+          Files.delete(tmp.toPath());
+          return null;
+        } finally {
+          writer.close();
+        }
+        Files.move(tmp.toPath(), new File(postingsDir, entry.getKey() + TSV_EXTENSION).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        logger.fine(format("Indexed {0}", entry.getValue().getAbsolutePath()));
+        return null;
+      }));
+    }
+    executor.shutdown();
+    try {
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+      throw new IOException(exc);
+    } catch (ExecutionException exc) {
+      executor.shutdownNow();
+      if (exc.getCause() instanceof XMLStreamException) {
+        throw (XMLStreamException) exc.getCause();
+      }
+      throw new IOException(exc.getCause());
+    }
+    return failed;
+  }
+
+  /**
+   * Merges the postings of all models into one sorted binary index.
+   *
+   * @param manifest
+   * @param postingsDir
+   * @param indexFile
+   * @throws IOException
+   */
+  private static void writeIndex(Map<String, String[]> manifest, File postingsDir, File indexFile) throws IOException {
+    TreeMap<String, List<String>> index = new TreeMap<String, List<String>>();
+    for (Map.Entry<String, String[]> entry : manifest.entrySet()) {
+      BufferedReader reader = Files.newBufferedReader(new File(postingsDir, entry.getValue()[0] + TSV_EXTENSION).toPath(), StandardCharsets.UTF_8);
+      try {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          int tab = line.indexOf('\t');
+          List<String> postings = index.get(line.substring(0, tab));
+          if (postings == null) {
+            postings = new ArrayList<String>();
+            index.put(line.substring(0, tab), postings);
+          }
+          postings.add(entry.getKey() + line.substring(tab));
+        }
+      } finally {
+        reader.close();
+      }
+    }
+
+    // Lay out the data section behind the table to know all offsets in advance.
+    List<byte[]> keys = new ArrayList<byte[]>(index.size());
+    long offset = HEADER_SIZE + (long) index.size() * ENTRY_SIZE;
+    long keyOffsets[] = new long[index.size()], postingOffsets[] = new long[index.size()];
+    int i = 0;
+    for (Map.Entry<String, List<String>> entry : index.entrySet()) {
+      byte key[] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+      keys.add(key);
+      keyOffsets[i] = offset;
+      offset += key.length;
+      postingOffsets[i] = offset;
+      for (String posting : entry.getValue()) {
+        offset += 4 + posting.getBytes(StandardCharsets.UTF_8).length;
+      }
+      i++;
+    }
+    if (offset > Integer.MAX_VALUE) {
+      throw new IOException(format("Index of {0,number,integer} bytes exceeds the maximal size", offset));
+    }
+
+    File tmp = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(index.size());
+      out.writeInt(0);
+      i = 0;
+      for (List<String> postings : index.values()) {
+        out.writeLong(keyOffsets[i]);
+        out.writeInt(keys.get(i).length);
+        out.writeInt(postings.size());
+        out.writeLong(postingOffsets[i]);
+        i++;
+      }
+      i = 0;
+      for (List<String> postings : index.values()) {
+        out.write(keys.get(i++));
+        for (String posting : postings) {
+          byte bytes[] = posting.getBytes(StandardCharsets.UTF_8);
+          out.writeInt(bytes.length);
+          out.write(bytes);
+        }
+      }
+    } finally {
+      out.close();
+    }
+    Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    logger.info(format("Index written: {0} ({1,number,integer} resources)", indexFile.getAbsolutePath(), index.size()));
+  }
+
+}
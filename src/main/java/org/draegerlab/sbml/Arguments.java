@@ -0,0 +1,108 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal command-line parser for the tools in this package. All arguments
+ * starting with {@code --} are treated as options, either in the form
+ * {@code --name} (a flag) or {@code --name=value}. All other arguments keep
+ * their relative order and are accessible by their position.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class Arguments {
+
+  private final List<String> positional = new ArrayList<String>();
+  private final Map<String, String> options = new HashMap<String, String>();
+
+  /**
+   * @param args the arguments as passed to a {@code main} method.
+   */
+  public Arguments(String... args) {
+    for (String arg : args) {
+      if (arg.startsWith("--") && (arg.length() > 2)) {
+        int eq = arg.indexOf('=');
+        if (eq > 0) {
+          options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        } else {
+          options.put(arg.substring(2), Boolean.TRUE.toString());
+        }
+      } else {
+        positional.add(arg);
+      }
+    }
+  }
+
+  /**
+   * @param i index of the positional argument.
+   * @return the positional argument at the given index.
+   * @throws IllegalArgumentException if there are not enough positional
+   *         arguments.
+   */
+  public String get(int i) {
+    if (i >= positional.size()) {
+      throw new IllegalArgumentException(
+        "Missing argument at position " + (i + 1));
+    }
+    return positional.get(i);
+  }
+
+  /**
+   * @param i index of the positional argument.
+   * @param defaultValue returned if there is no such argument.
+   * @return the positional argument at the given index or the default value.
+   */
+  public String get(int i, String defaultValue) {
+    return i < positional.size() ? positional.get(i) : defaultValue;
+  }
+
+  /**
+   * @return all positional arguments in their original order.
+   */
+  public List<String> getPositional() {
+    return positional;
+  }
+
+  /**
+   * @return the number of positional arguments.
+   */
+  public int size() {
+    return positional.size();
+  }
+
+  /**
+   * @param name option name without leading dashes.
+   * @return {@code true} if the option was given and not explicitly set to
+   *         {@code false}.
+   */
+  public boolean isSet(String name) {
+    return options.containsKey(name) && !Boolean.FALSE.toString().equalsIgnoreCase(options.get(name));
+  }
+
+  /**
+   * @param name option name without leading dashes.
+   * @param defaultValue returned if the option was not given.
+   * @return the value of the option or the default value.
+   */
+  public String getOption(String name, String defaultValue) {
+    String value = options.get(name);
+    return value != null ? value : defaultValue;
+  }
+
+  /**
+   * @param name option name without leading dashes.
+   * @param defaultValue returned if the option was not given.
+   * @return the numerical value of the option or the default value.
+   */
+  public int getOption(String name, int defaultValue) {
+    String value = options.get(name);
+    return value != null ? Integer.parseInt(value) : defaultValue;
+  }
+
+}
@@ -0,0 +1,275 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.sbml.jsbml.Model;
+import org.sbml.jsbml.Reaction;
+import org.sbml.jsbml.SBMLDocument;
+
+/**
+ * The few properties of a base model that are needed to refer to it from
+ * hierarchical submodels: its identifier, name, SBML level and version, the
+ * identifiers of its reactions in their original order, and the MD5 checksum
+ * of the file that contains it.
+ * <p>
+ * With {@link #copy(File, File)}, these properties are collected in a single
+ * streaming pass over the file that at the same time copies it byte by byte
+ * and computes its checksum, so that the model is never loaded into memory.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class BaseModelInfo {
+
+  private static final int BUFFER = 1 << 16;
+
+  private final String id;
+  private final String name;
+  private final int level;
+  private final int version;
+  private final List<String> reactionIds;
+  private final String md5;
+
+  /**
+   * @param id
+   * @param name
+   * @param level
+   * @param version
+   * @param reactionIds
+   * @param md5
+   */
+  public BaseModelInfo(String id, String name, int level, int version, List<String> reactionIds, String md5) {
+    this.id = id;
+    this.name = name;
+    this.level = level;
+    this.version = version;
+    this.reactionIds = Collections.unmodifiableList(reactionIds);
+    this.md5 = md5;
+  }
+
+  /**
+   * @param doc a base model that has already been read.
+   * @param md5 the checksum of the file from which the model can be read.
+   * @return the properties of the given model.
+   */
+  public static BaseModelInfo of(SBMLDocument doc, String md5) {
+    Model m = doc.getModel();
+    List<String> reactionIds = new ArrayList<String>(m.getReactionCount());
+    for (Reaction r : m.getListOfReactions()) {
+      reactionIds.add(r.getId());
+    }
+    return new BaseModelInfo(m.getId(), m.isSetName() ? m.getName() : null, doc.getLevel(), doc.getVersion(), reactionIds, md5);
+  }
+
+  /**
+   * Copies an uncompressed SBML file and collects the properties of its model
+   * while doing so.
+   *
+   * @param source the SBML file to be read.
+   * @param target where to copy the file to.
+   * @return the properties of the model in the file.
+   * @throws IOException
+   * @throws XMLStreamException if the file cannot be parsed; the incomplete
+   *         target is deleted in this case as for any other failure.
+   */
+  public static BaseModelInfo copy(File source, File target) throws IOException, XMLStreamException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException exc) {
+      throw new IOException(exc);
+    }
+    OutputStream out = new BufferedOutputStream(new FileOutputStream(target), BUFFER);
+    boolean success = false;
+    try {
+      InputStream in = new DigestInputStream(new CopyingInputStream(new BufferedInputStream(new FileInputStream(source), BUFFER), out), digest);
+      try {
+        BaseModelInfo info = scan(in);
+        // The parser may stop before the end of the file, but copy and checksum
+        // must cover all of it.
+        byte buffer[] = new byte[BUFFER];
+        while (in.read(buffer) != -1) {
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+          sb.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1));
+        }
+        success = true;
+        return new BaseModelInfo(info.id, info.name, info.level, info.version, info.reactionIds, sb.toString());
+      } finally {
+        in.close();
+      }
+    } finally {
+      out.close();
+      if (!success) {
+        // Do not leave a truncated copy behind.
+        target.delete();
+      }
+    }
+  }
+
+  /**
+   * @param in
+   * @return the properties of the model in the stream without checksum.
+   * @throws XMLStreamException
+   */
+  private static BaseModelInfo scan(InputStream in) throws XMLStreamException {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    XMLStreamReader reader = factory.createXMLStreamReader(in);
+    String id = null, name = null;
+    int level = 0, version = 0;
+    List<String> reactionIds = new ArrayList<String>();
+    // The model may lack an identifier (SBML L3V2), so its presence is tracked separately.
+    boolean model = false;
+    try {
+      // Only reactions of the main model, i.e., in sbml/model/listOfReactions
+      int depth = 0, reactionsDepth = -1;
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          depth++;
+          String element = reader.getLocalName();
+          if ((depth == 1) && element.equals("sbml")) {
+            level = Integer.parseInt(reader.getAttributeValue(null, "level"));
+            version = Integer.parseInt(reader.getAttributeValue(null, "version"));
+          } else if ((depth == 2) && element.equals("model")) {
+            model = true;
+            id = reader.getAttributeValue(null, "id");
+            name = reader.getAttributeValue(null, "name");
+          } else if ((depth == 3) && model && element.equals("listOfReactions")) {
+            reactionsDepth = depth;
+          } else if ((depth == reactionsDepth + 1) && element.equals("reaction")) {
+            reactionIds.add(reader.getAttributeValue(null, "id"));
+          }
+        } else if (event == XMLStreamConstants.END_ELEMENT) {
+          if (depth == reactionsDepth) {
+            reactionsDepth = -1;
+          } else if ((depth == 2) && model) {
+            // Nothing of interest after the end of the model
+            break;
+          }
+          depth--;
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    if (!model) {
+      throw new XMLStreamException("No model found");
+    }
+    return new BaseModelInfo(id, name, level, version, reactionIds, null);
+  }
+
+  /**
+   * Writes every byte that is read to a second stream.
+   */
+  private static class CopyingInputStream extends FilterInputStream {
+
+    private final OutputStream copy;
+
+    /**
+     * @param in
+     * @param copy
+     */
+    public CopyingInputStream(InputStream in, OutputStream copy) {
+      super(in);
+      this.copy = copy;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b != -1) {
+        copy.write(b);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int count = super.read(b, off, len);
+      if (count > 0) {
+        copy.write(b, off, count);
+      }
+      return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      // Skipped bytes must be copied, too.
+      byte buffer[] = new byte[(int) Math.min(n, BUFFER)];
+      int count = read(buffer, 0, buffer.length);
+      return Math.max(count, 0);
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+  }
+
+  /**
+   * @return the identifier of the model or {@code null} if it has none.
+   */
+  public String getId() {
+    return id;
+  }
+
+  /**
+   * @return the name of the model or {@code null}.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return the SBML level of the document.
+   */
+  public int getLevel() {
+    return level;
+  }
+
+  /**
+   * @return the SBML version of the document.
+   */
+  public int getVersion() {
+    return version;
+  }
+
+  /**
+   * @return the identifiers of all reactions in their original order.
+   */
+  public List<String> getReactionIds() {
+    return reactionIds;
+  }
+
+  /**
+   * @return the MD5 checksum of the file that contains the model.
+   */
+  public String getMd5() {
+    return md5;
+  }
+
+}
@@ -0,0 +1,373 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static java.text.MessageFormat.format;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.TransformerException;
+
+import org.jdom2.JDOMException;
+import org.sbml.jsbml.ASTNode;
+import org.sbml.jsbml.Compartment;
+import org.sbml.jsbml.KineticLaw;
+import org.sbml.jsbml.ListOf;
+import org.sbml.jsbml.LocalParameter;
+import org.sbml.jsbml.Model;
+import org.sbml.jsbml.NamedSBase;
+import org.sbml.jsbml.Parameter;
+import org.sbml.jsbml.Reaction;
+import org.sbml.jsbml.SBMLDocument;
+import org.sbml.jsbml.SBMLReader;
+import org.sbml.jsbml.SimpleSpeciesReference;
+import org.sbml.jsbml.Species;
+import org.sbml.jsbml.UnitDefinition;
+import org.sbml.jsbml.ext.comp.CompConstants;
+import org.sbml.jsbml.ext.comp.CompModelPlugin;
+import org.sbml.jsbml.ext.comp.CompSBMLDocumentPlugin;
+import org.sbml.jsbml.ext.comp.CompSBasePlugin;
+import org.sbml.jsbml.ext.comp.ExternalModelDefinition;
+import org.sbml.jsbml.ext.comp.ReplacedElement;
+import org.sbml.jsbml.ext.comp.Submodel;
+import org.sbml.jsbml.ext.fbc.Association;
+import org.sbml.jsbml.ext.fbc.FBCConstants;
+import org.sbml.jsbml.ext.fbc.FBCModelPlugin;
+import org.sbml.jsbml.ext.fbc.FBCReactionPlugin;
+import org.sbml.jsbml.ext.fbc.GeneProduct;
+import org.sbml.jsbml.ext.fbc.GeneProductRef;
+import org.sbml.jsbml.ext.fbc.LogicalOperator;
+import org.sbml.jsbml.util.SBMLtools;
+
+import de.unirostock.sems.cbarchive.CombineArchive;
+import de.unirostock.sems.cbarchive.CombineArchiveException;
+
+/**
+ * Writes variants of a model as small hierarchical documents that refer to
+ * the unchanged base model by an {@link ExternalModelDefinition}, in the same
+ * way as {@link TissueModelExtractor#createTissueModelComp(int[])}. Each
+ * changed reaction is contained in the variant as a copy with the new
+ * properties that replaces the original reaction in the base model. All
+ * species, compartments, parameters, units, and gene products this copy
+ * refers to are also contained in the variant and replace their original
+ * counterparts, such that the flattened variant remains connected. Hence, the
+ * size of a variant is proportional to the number of changed reactions.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class CompVariantWriter {
+
+  private static final String COMP = CompConstants.shortLabel;
+  private static final String FBC = FBCConstants.shortLabel;
+  private static final String SBML_EXTENSION = ".xml";
+
+  /** A {@link Logger} for this class */
+  private static final Logger logger = Logger.getLogger(CompVariantWriter.class.getName());
+
+  /** The model from which all variants are derived */
+  private final Model baseModel;
+  /** The location of the base model relative to the variants */
+  private final String source;
+  /** Checksum of the base model file */
+  private final String md5;
+
+  /**
+   * @param baseModel the model from which all variants are derived.
+   * @param source the location of the base model relative to the variants.
+   * @param md5 the checksum of the file that contains the base model.
+   */
+  public CompVariantWriter(Model baseModel, String source, String md5) {
+    this.baseModel = baseModel;
+    this.source = source;
+    this.md5 = md5;
+  }
+
+  /**
+   * Creates a COMBINE archive with the unchanged base model as its main entry
+   * and one hierarchical document per variant.
+   *
+   * @param model the base model.
+   * @param csv the file with the changes per variant (see
+   *        {@link ModelVariantsCreator#readVariants(File, String)}).
+   * @param archiveFile the COMBINE archive to be created.
+   * @param separator separator in the CSV file.
+   * @param mode how to write the variants.
+   * @return the variant files added to the archive.
+   * @throws IOException
+   * @throws XMLStreamException
+   * @throws NoSuchAlgorithmException
+   * @throws JDOMException
+   * @throws ParseException
+   * @throws CombineArchiveException
+   * @throws URISyntaxException
+   * @throws TransformerException
+   */
+  public static List<File> createArchive(File model, File csv, File archiveFile, String separator, SBMLOutput.Mode mode)
+      throws IOException, XMLStreamException, NoSuchAlgorithmException, JDOMException,
+      ParseException, CombineArchiveException, URISyntaxException, TransformerException {
+    Map<String, List<ReactionEdit>> variants = ModelVariantsCreator.readVariants(csv, separator);
+    SBMLDocument baseDoc = SBMLReader.read(model);
+    CompVariantWriter writer = new CompVariantWriter(baseDoc.getModel(), model.getName(), TissueModelExtractor.checksum(model));
+
+    File outputFolder = new File(archiveFile.getAbsoluteFile().getParentFile(), TissueModelExtractor.nameWithoutExtension(archiveFile));
+    if (!outputFolder.exists()) {
+      outputFolder.mkdirs();
+    }
+    List<File> files = new ArrayList<File>(variants.size());
+    for (Map.Entry<String, List<ReactionEdit>> variant : variants.entrySet()) {
+      SBMLDocument doc = writer.createVariant(variant.getKey(), variant.getValue());
+      File out = new File(outputFolder, ModelVariantsCreator.toFileName(variant.getKey()) + SBML_EXTENSION);
+      SBMLOutput.write(doc, out, mode);
+      logger.info(format("File written: {0}", out.getAbsolutePath()));
+      files.add(out);
+    }
+
+    if (archiveFile.exists()) {
+      archiveFile.delete();
+    }
+    CombineArchive archive = new CombineArchive(archiveFile);
+    archive.setMainEntry(archive.addEntry(model.getAbsoluteFile().getParentFile(), model, TissueModelExtractor.SBML_LEVEL_3_VERSION_1_RELEASE_2));
+    for (File file : files) {
+      archive.addEntry(outputFolder, file, TissueModelExtractor.SBML_LEVEL_3_VERSION_1_RELEASE_2);
+    }
+    archive.pack(false);
+    archive.close();
+    logger.info(format("Archive written: {0}", archiveFile.getAbsolutePath()));
+    return files;
+  }
+
+  /**
+   * Creates a hierarchical document that contains the base model as submodel
+   * and replaces all reactions affected by the given changes.
+   *
+   * @param name the name of the variant.
+   * @param edits the changes that make up this variant.
+   * @return a hierarchical document for the variant.
+   */
+  public SBMLDocument createVariant(String name, List<ReactionEdit> edits) {
+    SBMLDocument doc = new SBMLDocument(baseModel.getLevel(), baseModel.getVersion());
+    CompSBMLDocumentPlugin comp = (CompSBMLDocumentPlugin) doc.createPlugin(COMP);
+    ExternalModelDefinition emd = comp.createExternalModelDefinition(baseModel.getId());
+    emd.setSource(source);
+    emd.setModelRef(baseModel.getId());
+    emd.setMd5(md5);
+    Model m = doc.createModel(SBMLtools.nameToSId(name, doc));
+    m.setName(name);
+    Submodel submodel = ((CompModelPlugin) m.createPlugin(COMP)).createSubmodel("tmp_id");
+    submodel.setId(SBMLtools.nameToSId(baseModel.isSetName() ? baseModel.getName() : baseModel.getId(), doc));
+    submodel.setModelRef(baseModel.getId());
+    FBCModelPlugin baseFbc = (FBCModelPlugin) baseModel.getExtension(FBC);
+    if (baseFbc != null) {
+      FBCModelPlugin fbc = (FBCModelPlugin) m.getPlugin(baseFbc.getElementNamespace());
+      if (baseFbc.isSetStrict()) {
+        fbc.setStrict(baseFbc.getStrict());
+      }
+    }
+
+    // Copy each affected reaction once, no matter how many changes refer to it.
+    Map<String, Reaction> reactions = new LinkedHashMap<String, Reaction>();
+    for (ReactionEdit edit : edits) {
+      if (!reactions.containsKey(edit.getReactionId())) {
+        Reaction original = baseModel.getReaction(edit.getReactionId());
+        if (original == null) {
+          throw new IllegalArgumentException(format("No reaction with id ''{0}'' in model ''{1}''", edit.getReactionId(), baseModel.getId()));
+        }
+        Reaction r = original.clone();
+        m.addReaction(r);
+        replace(r, submodel);
+        reactions.put(r.getId(), r);
+      }
+      checkBound(edit.getLowerFluxBound(), edit);
+      checkBound(edit.getUpperFluxBound(), edit);
+      edit.apply(m);
+    }
+
+    Set<String> replicated = new HashSet<String>(reactions.keySet());
+    for (Reaction r : reactions.values()) {
+      replicateReferences(r.getListOfReactants(), m, submodel, replicated);
+      replicateReferences(r.getListOfProducts(), m, submodel, replicated);
+      replicateReferences(r.getListOfModifiers(), m, submodel, replicated);
+      if (r.isSetKineticLaw()) {
+        replicateKineticLaw(r.getKineticLaw(), m, submodel, replicated);
+      }
+      FBCReactionPlugin rplug = (FBCReactionPlugin) r.getExtension(FBC);
+      if (rplug != null) {
+        replicate(rplug.getLowerFluxBound(), m, submodel, replicated);
+        replicate(rplug.getUpperFluxBound(), m, submodel, replicated);
+        if (rplug.isSetGeneProductAssociation()) {
+          replicateGeneProducts(rplug.getGeneProductAssociation().getAssociation(), m, submodel, replicated);
+        }
+      }
+    }
+    logger.fine(format("Variant {0}: {1,number,integer} changes, {2,number,integer} replaced elements", name, edits.size(), replicated.size()));
+    return doc;
+  }
+
+  /**
+   * @param bound the new flux bound of an edit or {@code null}.
+   * @param edit
+   * @throws IllegalArgumentException if the base model has no parameter with
+   *         the identifier of the bound.
+   */
+  private void checkBound(String bound, ReactionEdit edit) {
+    if ((bound != null) && !bound.isEmpty() && (baseModel.getParameter(bound) == null)) {
+      throw new IllegalArgumentException(format("Flux bound ''{0}'' of reaction ''{1}'' is not a parameter in model ''{2}''",
+        bound, edit.getReactionId(), baseModel.getId()));
+    }
+  }
+
+  /**
+   * Copies all global elements the math of the kinetic law refers to, and the
+   * units of its local parameters.
+   *
+   * @param kineticLaw
+   * @param m
+   * @param submodel
+   * @param replicated
+   */
+  private void replicateKineticLaw(KineticLaw kineticLaw, Model m, Submodel submodel, Set<String> replicated) {
+    Set<String> localIds = new HashSet<String>();
+    for (LocalParameter lp : kineticLaw.getListOfLocalParameters()) {
+      localIds.add(lp.getId());
+      replicate(lp.getUnits(), m, submodel, replicated);
+    }
+    if (kineticLaw.isSetMath()) {
+      replicateNames(kineticLaw.getMath(), localIds, m, submodel, replicated);
+    }
+  }
+
+  /**
+   * @param node
+   * @param localIds identifiers that refer to local parameters.
+   * @param m
+   * @param submodel
+   * @param replicated
+   */
+  private void replicateNames(ASTNode node, Set<String> localIds, Model m, Submodel submodel, Set<String> replicated) {
+    if (node.isName() && node.isSetName() && !localIds.contains(node.getName())) {
+      replicate(node.getName(), m, submodel, replicated);
+    }
+    for (int i = 0; i < node.getChildCount(); i++) {
+      replicateNames(node.getChild(i), localIds, m, submodel, replicated);
+    }
+  }
+
+  /**
+   * @param listOfReferences
+   * @param m
+   * @param submodel
+   * @param replicated
+   */
+  private void replicateReferences(ListOf<? extends SimpleSpeciesReference> listOfReferences,
+    Model m, Submodel submodel, Set<String> replicated) {
+    for (SimpleSpeciesReference ssr : listOfReferences) {
+      replicate(ssr.getSpecies(), m, submodel, replicated);
+    }
+  }
+
+  /**
+   * @param association
+   * @param m
+   * @param submodel
+   * @param replicated
+   */
+  private void replicateGeneProducts(Association association, Model m,
+    Submodel submodel, Set<String> replicated) {
+    if (association instanceof GeneProductRef) {
+      replicate(((GeneProductRef) association).getGeneProduct(), m, submodel, replicated);
+    } else if (association instanceof LogicalOperator) {
+      for (Association child : ((LogicalOperator) association).getListOfAssociations()) {
+        replicateGeneProducts(child, m, submodel, replicated);
+      }
+    }
+  }
+
+  /**
+   * Copies the element with the given identifier from the base model into the
+   * variant, lets it replace the original, and recursively continues with all
+   * elements the copy refers to.
+   *
+   * @param id
+   * @param m
+   * @param submodel
+   * @param replicated identifiers of all elements that have already been
+   *        copied.
+   */
+  private void replicate(String id, Model m, Submodel submodel, Set<String> replicated) {
+    if ((id == null) || id.isEmpty() || !replicated.add(id)) {
+      return;
+    }
+    Species species = baseModel.getSpecies(id);
+    if (species != null) {
+      Species copy = species.clone();
+      m.addSpecies(copy);
+      replace(copy, submodel);
+      replicate(copy.getCompartment(), m, submodel, replicated);
+      replicate(copy.getSubstanceUnits(), m, submodel, replicated);
+      replicate(copy.getConversionFactor(), m, submodel, replicated);
+      return;
+    }
+    Compartment compartment = baseModel.getCompartment(id);
+    if (compartment != null) {
+      Compartment copy = compartment.clone();
+      m.addCompartment(copy);
+      replace(copy, submodel);
+      replicate(copy.getUnits(), m, submodel, replicated);
+      return;
+    }
+    Parameter parameter = baseModel.getParameter(id);
+    if (parameter != null) {
+      Parameter copy = parameter.clone();
+      m.addParameter(copy);
+      replace(copy, submodel);
+      replicate(copy.getUnits(), m, submodel, replicated);
+      return;
+    }
+    UnitDefinition unitDefinition = baseModel.getUnitDefinition(id);
+    if (unitDefinition != null) {
+      UnitDefinition copy = unitDefinition.clone();
+      m.addUnitDefinition(copy);
+      replace(copy, submodel);
+      return;
+    }
+    FBCModelPlugin baseFbc = (FBCModelPlugin) baseModel.getExtension(FBC);
+    GeneProduct geneProduct = baseFbc != null ? baseFbc.getGeneProduct(id) : null;
+    if (geneProduct != null) {
+      GeneProduct copy = geneProduct.clone();
+      ((FBCModelPlugin) m.getExtension(FBC)).addGeneProduct(copy);
+      replace(copy, submodel);
+    }
+  }
+
+  /**
+   * Declares that the given element replaces the element with the same
+   * identifier within the submodel. Unit definitions live in their own
+   * namespace and are therefore referenced by {@code unitRef}.
+   *
+   * @param sbase
+   * @param submodel
+   */
+  private static void replace(NamedSBase sbase, Submodel submodel) {
+    ReplacedElement replacedElement = ((CompSBasePlugin) sbase.getPlugin(COMP)).createReplacedElement();
+    replacedElement.setSubmodelRef(submodel.getId());
+    if (sbase instanceof UnitDefinition) {
+      replacedElement.setUnitRef(sbase.getId());
+    } else {
+      replacedElement.setIdRef(sbase.getId());
+    }
+  }
+
+}
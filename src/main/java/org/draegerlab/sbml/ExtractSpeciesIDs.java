@@ -3,45 +3,301 @@
  */
 package org.draegerlab.sbml;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
-
-import org.sbml.jsbml.CVTerm.Qualifier;
-import org.sbml.jsbml.Compartment;
-import org.sbml.jsbml.Model;
-import org.sbml.jsbml.SBMLDocument;
-import org.sbml.jsbml.SBMLReader;
-import org.sbml.jsbml.Species;
+import javax.xml.stream.XMLStreamReader;
 
 /**
  * Pulls a list of Species identifiers (KEGG IDs) from a model.
+ * <p>
+ * The model is not loaded into memory. Instead, its {@code species} elements
+ * and the {@code bqbiol:is} resources in their RDF annotations are collected
+ * while streaming through the file once. Files can be plain or compressed
+ * with gzip.
  *
  * @author Andreas Dr&auml;ger
  *
  */
 public class ExtractSpeciesIDs {
 
+  private static final String SBML_NAMESPACE = "http://www.sbml.org/sbml/level";
+  private static final String BQBIOL_NAMESPACE = "http://biomodels.net/biology-qualifiers/";
+  private static final String RDF_NAMESPACE = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+  private static final int BUFFER = 1 << 16;
+
+  /**
+   * The resources of one species that it is annotated with by
+   * {@code BQB_IS}.
+   */
+  public static class SpeciesAnnotation {
+
+    private final String compartment;
+    private final String species;
+    private final List<String> resources;
+
+    /**
+     * @param compartment
+     * @param species
+     * @param resources
+     */
+    public SpeciesAnnotation(String compartment, String species, List<String> resources) {
+      this.compartment = compartment;
+      this.species = species;
+      this.resources = resources;
+    }
+
+    /**
+     * @return the identifier of the compartment of the species.
+     */
+    public String getCompartment() {
+      return compartment;
+    }
+
+    /**
+     * @return the identifier of the species.
+     */
+    public String getSpecies() {
+      return species;
+    }
+
+    /**
+     * @return all resources that match the filter.
+     */
+    public List<String> getResources() {
+      return resources;
+    }
+  }
+
   /**
    * @param args
-   *   1) Path to a model file in SBML format
-   *   2) Compartment ID
-   *   3) Pattern for the resources
+   *   1) Path to a model file in SBML format, or a directory with such files,
+   *      several paths can be separated by the path separator of the system.
+   *   2) Compartment ID, several IDs can be separated by commas, {@code *}
+   *      selects all compartments.
+   *   3) Optional regular expression for the resources
+   *   Option {@code --format=json} writes one JSON object per species instead
+   *   of tab-separated values, option {@code --threads=n} limits the number of
+   *   files processed in parallel.
    * @throws IOException
    * @throws XMLStreamException
    */
   public static void main(String[] args) throws XMLStreamException, IOException {
-    SBMLDocument doc = SBMLReader.read(new GZIPInputStream(new FileInputStream(new File(args[0]))));
-    Model m = doc.getModel();
-    Compartment c = m.getCompartment(args[1]);
-    for (Species s : m.getListOfSpecies()) {
-      if (s.isSetCompartment() && s.getCompartment().equals(c.getId())) {
-        String filter = "";// args[2];
-        System.out.printf("%s\t%s\n", s.getId(), s.filterCVTerms(Qualifier.BQB_IS, filter, true));
+    Arguments arguments = new Arguments(args);
+    List<File> files = new ArrayList<File>();
+    for (String path : arguments.get(0).split(File.pathSeparator)) {
+      File file = new File(path);
+      if (file.isDirectory()) {
+        File children[] = file.listFiles(f -> f.isFile() && !f.isHidden());
+        Arrays.sort(children);
+        files.addAll(Arrays.asList(children));
+      } else {
+        files.add(file);
+      }
+    }
+    final Set<String> compartments = arguments.get(1).equals("*") ? null
+        : new HashSet<String>(Arrays.asList(arguments.get(1).split(",")));
+    final Pattern filter = arguments.size() > 2 ? Pattern.compile(arguments.get(2)) : null;
+    final boolean json = arguments.getOption("format", "tsv").equalsIgnoreCase("json");
+    int threads = Math.max(1, Math.min(files.size(),
+      arguments.getOption("threads", Runtime.getRuntime().availableProcessors())));
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    // at most this many results are held in memory at any time
+    int window = 2 * threads;
+    Deque<Future<String>> results = new ArrayDeque<Future<String>>(window);
+    PrintStream out = System.out;
+    try {
+      for (final File file : files) {
+        if (results.size() >= window) {
+          out.print(results.poll().get());
+        }
+        results.add(executor.submit(new Callable<String>() {
+          @Override
+          public String call() throws IOException, XMLStreamException {
+            StringBuilder sb = new StringBuilder();
+            extract(file, compartments, filter, a -> format(sb, file.getPath(), a, json));
+            return sb.toString();
+          }
+        }));
+      }
+      while (!results.isEmpty()) {
+        out.print(results.poll().get());
+      }
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while extracting species");
+    } catch (ExecutionException exc) {
+      if (exc.getCause() instanceof XMLStreamException) {
+        throw (XMLStreamException) exc.getCause();
+      }
+      throw new IOException(exc.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+    out.flush();
+  }
+
+  /**
+   * Appends one line for the given species to the output.
+   *
+   * @param sb
+   * @param model
+   * @param a
+   * @param json
+   */
+  private static void format(StringBuilder sb, String model, SpeciesAnnotation a, boolean json) {
+    if (json) {
+      sb.append("{\"model\":");
+      appendJSON(sb, model);
+      sb.append(",\"compartment\":");
+      appendJSON(sb, a.getCompartment());
+      sb.append(",\"species\":");
+      appendJSON(sb, a.getSpecies());
+      sb.append(",\"resources\":[");
+      for (int i = 0; i < a.getResources().size(); i++) {
+        if (i > 0) {
+          sb.append(',');
+        }
+        appendJSON(sb, a.getResources().get(i));
+      }
+      sb.append("]}\n");
+    } else {
+      sb.append(model).append('\t').append(a.getCompartment()).append('\t').append(a.getSpecies()).append('\t');
+      sb.append(String.join(",", a.getResources())).append('\n');
+    }
+  }
+
+  /**
+   * Appends the given value as a JSON string literal.
+   *
+   * @param sb
+   * @param value
+   */
+  private static void appendJSON(StringBuilder sb, String value) {
+    if (value == null) {
+      sb.append("null");
+      return;
+    }
+    sb.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if ((c == '"') || (c == '\\')) {
+        sb.append('\\').append(c);
+      } else if (c < 0x20) {
+        sb.append(String.format("\\u%04x", (int) c));
+      } else {
+        sb.append(c);
+      }
+    }
+    sb.append('"');
+  }
+
+  /**
+   * Streams through the given file, which may be compressed with gzip.
+   *
+   * @param file the SBML file.
+   * @param compartments identifiers of the compartments whose species are to
+   *        be reported or {@code null} for all compartments.
+   * @param filter only resources containing a match of this pattern are
+   *        reported; {@code null} reports all resources.
+   * @param consumer receives each species in document order.
+   * @throws IOException
+   * @throws XMLStreamException
+   */
+  public static void extract(File file, Set<String> compartments, Pattern filter,
+    Consumer<SpeciesAnnotation> consumer) throws IOException, XMLStreamException {
+    InputStream is = new BufferedInputStream(new FileInputStream(file), BUFFER);
+    try {
+      is.mark(2);
+      int b1 = is.read(), b2 = is.read();
+      is.reset();
+      if ((b1 == 0x1f) && (b2 == 0x8b)) {
+        is = new BufferedInputStream(new GZIPInputStream(is, BUFFER), BUFFER);
+      }
+      extract(is, compartments, filter, consumer);
+    } finally {
+      is.close();
+    }
+  }
+
+  /**
+   * Streams through an uncompressed SBML document without closing the stream.
+   *
+   * @param in
+   * @param compartments identifiers of the compartments whose species are to
+   *        be reported or {@code null} for all compartments.
+   * @param filter only resources containing a match of this pattern are
+   *        reported; {@code null} reports all resources.
+   * @param consumer receives each species in document order.
+   * @throws XMLStreamException
+   */
+  public static void extract(InputStream in, Set<String> compartments, Pattern filter,
+    Consumer<SpeciesAnnotation> consumer) throws XMLStreamException {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    XMLStreamReader reader = factory.createXMLStreamReader(in);
+    String species = null, compartment = null;
+    List<String> resources = null;
+    boolean isQualifier = false;
+    while (reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        String name = reader.getLocalName();
+        String ns = reader.getNamespaceURI();
+        if (ns == null) {
+          continue;
+        }
+        if ((species == null) && name.equals("species") && ns.startsWith(SBML_NAMESPACE)) {
+          compartment = reader.getAttributeValue(null, "compartment");
+          if ((compartments == null) || ((compartment != null) && compartments.contains(compartment))) {
+            species = reader.getAttributeValue(null, "id");
+            resources = new ArrayList<String>();
+          }
+        } else if ((species != null) && name.equals("is") && ns.equals(BQBIOL_NAMESPACE)) {
+          isQualifier = true;
+        } else if (isQualifier && name.equals("li") && ns.equals(RDF_NAMESPACE)) {
+          String resource = reader.getAttributeValue(RDF_NAMESPACE, "resource");
+          if ((resource != null) && ((filter == null) || filter.matcher(resource).find())) {
+            resources.add(resource);
+          }
+        }
+      } else if ((event == XMLStreamConstants.END_ELEMENT) && (species != null)) {
+        String name = reader.getLocalName();
+        if (name.equals("is") && BQBIOL_NAMESPACE.equals(reader.getNamespaceURI())) {
+          isQualifier = false;
+        } else if (name.equals("species") && (reader.getNamespaceURI() != null)
+            && reader.getNamespaceURI().startsWith(SBML_NAMESPACE)) {
+          consumer.accept(new SpeciesAnnotation(compartment, species, Collections.unmodifiableList(resources)));
+          species = null;
+          resources = null;
+        }
       }
     }
+    reader.close();
   }
 }
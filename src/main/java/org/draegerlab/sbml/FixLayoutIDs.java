@@ -4,7 +4,6 @@
 package org.draegerlab.sbml;
 
 import org.sbml.jsbml.*;
-import org.sbml.jsbml.SBMLError.SEVERITY;
 import org.sbml.jsbml.ext.layout.*;
 
 import javax.xml.stream.XMLStreamException;
@@ -35,16 +34,42 @@ public class FixLayoutIDs {
    *        1) The result from a conversion Escher JSON to SBML
    *        2) The model in which the layout is to be inserted.
    *        3) The output file
+   *        Option {@code --validate}: check the consistency of the result and
+   *        print all errors.
+   *        Option {@code --output=tidy|compact} selects the output format (see
+   *        {@link SBMLOutput}).
    * @throws IOException
    * @throws XMLStreamException
    */
   public static void main(String[] args) throws XMLStreamException, IOException {
-    SBMLDocument layoutDoc = SBMLReader.read(new File(args[0]));
-    SBMLDocument doc = SBMLReader.read(new File(args[1]));
+    Arguments arguments = new Arguments(args);
+    SBMLDocument layoutDoc = SBMLReader.read(new File(arguments.get(0)));
+    SBMLDocument doc = SBMLReader.read(new File(arguments.get(1)));
+    insertLayout(layoutDoc, doc);
+    logger.info(arguments.get(1));
+    SBMLOutput.write(doc, new File(arguments.get(2)), SBMLOutput.getMode(arguments));
+    if (arguments.isSet("validate")) {
+      for (SBMLError e : Validate.check(doc)) {
+        logger.warning(e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Copies the first layout from the converted Escher document into the given
+   * document and adjusts all references in its glyphs to the identifiers of
+   * the model.
+   *
+   * @param layoutDoc the result from a conversion Escher JSON to SBML
+   * @param doc the document in which the layout is to be inserted.
+   * @return the number of references that had to be corrected.
+   */
+  public static int insertLayout(SBMLDocument layoutDoc, SBMLDocument doc) {
     Model m = doc.getModel();
     LayoutModelPlugin layout = (LayoutModelPlugin) layoutDoc.getModel().getPlugin(LayoutConstants.shortLabel);
     m.addPlugin(LayoutConstants.shortLabel, layout.clone());
     Layout l = ((LayoutModelPlugin) m.getPlugin(LayoutConstants.shortLabel)).getListOfLayouts().get(0);
+    int total = 0;
     int count = 0;
     for (SpeciesGlyph sg : l.getListOfSpeciesGlyphs()) {
       if (sg.isSetSpecies()) {
@@ -56,6 +81,7 @@ public class FixLayoutIDs {
         }
       }
     }
+    total += count;
     count = 0;
     for (TextGlyph tg : l.getListOfTextGlyphs()) {
       if (tg.isSetOriginOfText()) {
@@ -78,6 +104,7 @@ public class FixLayoutIDs {
         }
       }
     }
+    total += count;
     count = 0;
     for (ReactionGlyph rg : l.getListOfReactionGlyphs()) {
       if (rg.isSetReaction() && (rg.getReactionInstance() == null)) {
@@ -104,9 +131,13 @@ public class FixLayoutIDs {
                 if (sr.isSetSpecies()) {
                   //System.out.println("Found " + sr.getSpecies() + " for " + ref);
                   if (ref.contains("_reactant_")) {
-                    setId(r.getListOfReactants(), sr.getSpecies(), ref);
+                    if (setId(r.getListOfReactants(), sr.getSpecies(), ref)) {
+                      count++;
+                    }
                   } else if (ref.contains("_product_")) {
-                    setId(r.getListOfProducts(), sr.getSpecies(), ref);
+                    if (setId(r.getListOfProducts(), sr.getSpecies(), ref)) {
+                      count++;
+                    }
                   }
                 }
               }
@@ -115,12 +146,7 @@ public class FixLayoutIDs {
         }
       }
     }
-    logger.info(args[1]);
-    TidySBMLWriter.write(doc, new File(args[2]), ' ', (short) 2);
-    doc.checkConsistencyOffline();
-    /*for (SBMLError e : doc.getListOfErrors().getErrorsBySeverity(SEVERITY.ERROR)) {
-      logger.warning(e.getMessage());
-    }*/
+    return total + count;
   }
 
   /**
@@ -128,17 +154,19 @@ public class FixLayoutIDs {
    * @param listOfParticipants
    * @param species
    * @param id
+   * @return {@code true} if a matching reference was found.
    */
-  private static void setId(ListOf<SpeciesReference> listOfParticipants,
+  private static boolean setId(ListOf<SpeciesReference> listOfParticipants,
     String species, String id) {
     species = createNewReference(species, "M");
     for (SpeciesReference sr : listOfParticipants) {
       if (sr.getSpecies().equals(species)) {
         sr.setId(id);
         logger.info(format("Setting id to {0} for speciesReference to {1}", id, species));
-        break;
+        return true;
       }
     }
+    return false;
   }
 
   /**
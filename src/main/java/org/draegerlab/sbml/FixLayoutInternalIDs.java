@@ -1,7 +1,12 @@
 package org.draegerlab.sbml;
 
+import static java.text.MessageFormat.format;
+
 import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
 
 import javax.xml.stream.XMLStreamException;
 
@@ -10,11 +15,8 @@ import org.sbml.jsbml.Model;
 import org.sbml.jsbml.Reaction;
 import org.sbml.jsbml.SBMLDocument;
 import org.sbml.jsbml.SBMLError;
-import org.sbml.jsbml.SBMLError.SEVERITY;
 import org.sbml.jsbml.SBMLReader;
 import org.sbml.jsbml.SimpleSpeciesReference;
-import org.sbml.jsbml.SpeciesReference;
-import org.sbml.jsbml.TidySBMLWriter;
 import org.sbml.jsbml.ext.layout.Layout;
 import org.sbml.jsbml.ext.layout.LayoutConstants;
 import org.sbml.jsbml.ext.layout.LayoutModelPlugin;
@@ -22,96 +24,141 @@ import org.sbml.jsbml.ext.layout.ReactionGlyph;
 import org.sbml.jsbml.ext.layout.SpeciesGlyph;
 import org.sbml.jsbml.ext.layout.SpeciesReferenceGlyph;
 
+/**
+ * Connects the species reference glyphs within a layout to the corresponding
+ * species references in the model, either by pointing the glyph to the
+ * existing reference or by assigning the glyph's reference identifier to it.
+ *
+ * @author Andreas Dr&auml;ger
+ */
 public class FixLayoutInternalIDs {
 
+  private static final Logger logger = Logger.getLogger(FixLayoutInternalIDs.class.getName());
+
+  /**
+   * @param args
+   *        1) Input: The model with layout
+   *        2) Output: The file to write the corrected model to
+   *        Option {@code --validate}: check the consistency of the result and
+   *        print all errors.
+   *        Option {@code --output=tidy|compact} selects the output format (see
+   *        {@link SBMLOutput}).
+   * @throws XMLStreamException
+   * @throws IOException
+   */
   public static void main(String[] args) throws XMLStreamException, IOException {
-    SBMLDocument doc = SBMLReader.read(new File(args[0]));
-    Model m = doc.getModel();
-    LayoutModelPlugin layoutPlug = (LayoutModelPlugin) doc.getModel().getPlugin(LayoutConstants.layout);
+    Arguments arguments = new Arguments(args);
+    SBMLDocument doc = SBMLReader.read(new File(arguments.get(0)));
+    int count = fixSpeciesReferences(doc);
+    logger.info(format("Rewired {0,number,integer} species references", count));
 
+    File out = new File(arguments.get(1));
+    SBMLOutput.write(doc, out, SBMLOutput.getMode(arguments));
+    if (arguments.isSet("validate")) {
+      for (SBMLError e : Validate.check(doc)) {
+        System.out.println(e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Links all species reference glyphs in all layouts of the given document to
+   * the species references of their reactions. The references of each reaction
+   * are indexed only once, so that the whole layout is processed in a single
+   * linear pass.
+   *
+   * @param doc a document whose model contains layouts.
+   * @return the number of species references or glyphs that have been rewired.
+   */
+  public static int fixSpeciesReferences(SBMLDocument doc) {
+    Model m = doc.getModel();
+    LayoutModelPlugin layoutPlug = (LayoutModelPlugin) m.getExtension(LayoutConstants.layout);
+    if ((layoutPlug == null) || !layoutPlug.isSetListOfLayouts()) {
+      return 0;
+    }
+    int count = 0;
+    Map<String, Map<String, SimpleSpeciesReference>> referencesByReaction = new HashMap<String, Map<String, SimpleSpeciesReference>>();
     for (Layout layout : layoutPlug.getListOfLayouts()) {
-      if (layout.isSetListOfReactionGlyphs()) {
-        for (ReactionGlyph rg : layout.getListOfReactionGlyphs()) {
-          if (rg.isSetListOfSpeciesReferenceGlyphs()) {
-            for (SpeciesReferenceGlyph srg : rg.getListOfSpeciesReferenceGlyphs()) {
-              if (srg.isSetSpeciesGlyph()) {
-                SpeciesGlyph sg = srg.getSpeciesGlyphInstance();
-                if (rg.isSetReaction()) {
-                  Reaction r = (Reaction) rg.getReactionInstance();
-                  if (r != null) {
-                    SpeciesReference sr = findSpeciesReference(r, sg.getSpecies());
-                    if (sr != null) {
-                      if (sr.isSetId() && !sr.getId().equals(srg.getSpeciesReference())) {
-                        srg.setSpeciesReference(sr);
-                      } else {
-                        sr.setId(srg.getSpeciesReference());
-                      }
-                    }
-                  }
+      if (!layout.isSetListOfReactionGlyphs()) {
+        continue;
+      }
+      Map<String, String> speciesByGlyph = new HashMap<String, String>();
+      for (SpeciesGlyph sg : layout.getListOfSpeciesGlyphs()) {
+        if (sg.isSetSpecies()) {
+          speciesByGlyph.put(sg.getId(), sg.getSpecies());
+        }
+      }
+      for (ReactionGlyph rg : layout.getListOfReactionGlyphs()) {
+        if (!rg.isSetReaction() || !rg.isSetListOfSpeciesReferenceGlyphs()) {
+          continue;
+        }
+        Reaction r = (Reaction) rg.getReactionInstance();
+        if (r == null) {
+          continue;
+        }
+        Map<String, SimpleSpeciesReference> references = referencesByReaction.get(r.getId());
+        if (references == null) {
+          references = indexSpeciesReferences(r);
+          referencesByReaction.put(r.getId(), references);
+        }
+        for (SpeciesReferenceGlyph srg : rg.getListOfSpeciesReferenceGlyphs()) {
+          if (srg.isSetSpeciesGlyph()) {
+            String species = speciesByGlyph.get(srg.getSpeciesGlyph());
+            SimpleSpeciesReference sr = species != null ? references.get(species) : null;
+            if (sr != null) {
+              if (sr.isSetId()) {
+                if (!sr.getId().equals(srg.getSpeciesReference())) {
+                  srg.setSpeciesReference(sr.getId());
+                  count++;
                 }
+              } else if (srg.isSetSpeciesReference()) {
+                sr.setId(srg.getSpeciesReference());
+                count++;
               }
             }
           }
         }
       }
     }
-
-    File out = new File(args[1]);
-    TidySBMLWriter.write(doc, out, ' ', (short) 2);
-    doc.checkConsistencyOffline();
-    for (SBMLError e : doc.getListOfErrors().getErrorsBySeverity(SEVERITY.ERROR)) {
-      System.out.println(e.getMessage());
-    }
+    return count;
   }
 
   /**
-   * Searches in all three lists of species references within the given reaction,
-   * i.e., reactants, products, and modifiers, and returns the first such reference
-   * to the given species identifier.
+   * Maps each species identifier to its first reference within the given
+   * reaction, searching reactants, products, and modifiers in this order.
    *
    * @param r
-   * @param species
-   * @return The first reference with the given species identifiers within the
-   *   lists of reactants, products, and modifiers with the given identifier or
-   *   {@code null} if none exists.
+   * @return a map from species identifiers to the first reference to each
+   *   species within the lists of reactants, products, and modifiers.
    */
-  private static SpeciesReference findSpeciesReference(Reaction r,
-    String species) {
-    SpeciesReference sr;
+  private static Map<String, SimpleSpeciesReference> indexSpeciesReferences(Reaction r) {
+    Map<String, SimpleSpeciesReference> references = new HashMap<String, SimpleSpeciesReference>();
     if (r.isSetListOfReactants()) {
-      sr = findSpeciesReference(r.getListOfReactants(), species);
-      if (sr != null) {
-        return sr;
-      }
+      indexSpeciesReferences(r.getListOfReactants(), references);
     }
     if (r.isSetListOfProducts()) {
-      sr = findSpeciesReference(r.getListOfProducts(), species);
-      if (sr != null) {
-        return sr;
-      }
+      indexSpeciesReferences(r.getListOfProducts(), references);
     }
     if (r.isSetListOfModifiers()) {
-      return findSpeciesReference(r.getListOfModifiers(), species);
+      indexSpeciesReferences(r.getListOfModifiers(), references);
     }
-    return null;
+    return references;
   }
 
   /**
-   * Searches a reference object within the given list to the species with the
-   * given identifier and returns it, {@code null} otherwise.
-   * @param <E>
+   * Adds all references within the given list to the map unless the map
+   * already contains a reference to the same species.
+   *
    * @param listOfReferences
-   * @param species
-   * @return
+   * @param references
    */
-  @SuppressWarnings("unchecked")
-  private static <E extends SimpleSpeciesReference> E findSpeciesReference(
-    ListOf<? extends SimpleSpeciesReference> listOfReferences, String species) {
+  private static void indexSpeciesReferences(
+    ListOf<? extends SimpleSpeciesReference> listOfReferences,
+    Map<String, SimpleSpeciesReference> references) {
     for (SimpleSpeciesReference ssr : listOfReferences) {
-      if (ssr.getSpecies().equals(species)) {
-        return (E) ssr;
+      if (ssr.isSetSpecies()) {
+        references.putIfAbsent(ssr.getSpecies(), ssr);
       }
     }
-    return null;
   }
 }
@@ -0,0 +1,286 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static java.text.MessageFormat.format;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+import org.sbml.jsbml.Model;
+import org.sbml.jsbml.Reaction;
+import org.sbml.jsbml.ext.fbc.And;
+import org.sbml.jsbml.ext.fbc.Association;
+import org.sbml.jsbml.ext.fbc.FBCConstants;
+import org.sbml.jsbml.ext.fbc.FBCModelPlugin;
+import org.sbml.jsbml.ext.fbc.FBCReactionPlugin;
+import org.sbml.jsbml.ext.fbc.GeneProduct;
+import org.sbml.jsbml.ext.fbc.GeneProductRef;
+import org.sbml.jsbml.ext.fbc.LogicalOperator;
+
+/**
+ * The gene-protein-reaction rules of all reactions in a model, compiled into
+ * one postfix program. Each rule is evaluated on bitmaps of 64 tissues at a
+ * time, in which a set bit means that the gene is expressed in the tissue, so
+ * that all tissues are processed with a few bitwise operations per rule.
+ * <p>
+ * Reactions without a rule are kept in every tissue. Genes that are
+ * referenced by a rule but not declared in the model are treated as not
+ * expressed. Rules refer to gene products by identifier only, whereas the
+ * gene lists of tissues may use identifiers or labels.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class GeneRuleProgram {
+
+  /** Conjunction of the two topmost values */
+  private static final int AND = -1;
+  /** Disjunction of the two topmost values */
+  private static final int OR = -2;
+  /** Constant: not expressed in any tissue */
+  private static final int FALSE = -3;
+  /** Constant: expressed in all tissues */
+  private static final int TRUE = -4;
+
+  /** A {@link Logger} for this class */
+  private static final Logger logger = Logger.getLogger(GeneRuleProgram.class.getName());
+
+  /**
+   * Index of each gene product by its identifier and by its label, where
+   * identifiers take precedence
+   */
+  private final Map<String, Integer> geneIndex;
+  private final int geneCount;
+  /** The instructions of all rules, one after the other */
+  private final int code[];
+  /** Where the rule of each reaction starts within {@link #code} */
+  private final int start[];
+  private final int maxStack;
+
+  /**
+   * @param geneIndex
+   * @param geneCount
+   * @param code
+   * @param start
+   * @param maxStack
+   */
+  private GeneRuleProgram(Map<String, Integer> geneIndex, int geneCount, int[] code, int[] start, int maxStack) {
+    this.geneIndex = geneIndex;
+    this.geneCount = geneCount;
+    this.code = code;
+    this.start = start;
+    this.maxStack = maxStack;
+  }
+
+  /**
+   * Compiles the {@code fbc:geneProductAssociation} of all reactions in the
+   * given model.
+   *
+   * @param m a model with fbc version 2.
+   * @return the program for all reactions in the order of the model.
+   */
+  public static GeneRuleProgram compile(Model m) {
+    // GeneProductRefs may only refer to identifiers.
+    Map<String, Integer> idIndex = new HashMap<String, Integer>();
+    int geneCount = 0;
+    FBCModelPlugin fbc = (FBCModelPlugin) m.getExtension(FBCConstants.shortLabel);
+    if ((fbc != null) && fbc.isSetListOfGeneProducts()) {
+      for (GeneProduct gene : fbc.getListOfGeneProducts()) {
+        idIndex.put(gene.getId(), geneCount++);
+      }
+    }
+    Map<String, Integer> geneIndex = new HashMap<String, Integer>(idIndex);
+    if (geneCount > 0) {
+      for (GeneProduct gene : fbc.getListOfGeneProducts()) {
+        if (gene.isSetLabel()) {
+          geneIndex.putIfAbsent(gene.getLabel(), idIndex.get(gene.getId()));
+        }
+      }
+    }
+    List<Integer> code = new ArrayList<Integer>();
+    int start[] = new int[m.getReactionCount() + 1];
+    int maxStack = 1;
+    for (int r = 0; r < m.getReactionCount(); r++) {
+      start[r] = code.size();
+      Reaction reaction = m.getReaction(r);
+      FBCReactionPlugin rplug = (FBCReactionPlugin) reaction.getExtension(FBCConstants.shortLabel);
+      if ((rplug != null) && rplug.isSetGeneProductAssociation()
+          && rplug.getGeneProductAssociation().isSetAssociation()) {
+        maxStack = Math.max(maxStack, compile(rplug.getGeneProductAssociation().getAssociation(), idIndex, code));
+      }
+    }
+    start[m.getReactionCount()] = code.size();
+    int program[] = new int[code.size()];
+    for (int i = 0; i < program.length; i++) {
+      program[i] = code.get(i);
+    }
+    logger.info(format("Compiled {0,number,integer} instructions for {1,number,integer} reactions and {2,number,integer} genes",
+      program.length, m.getReactionCount(), geneCount));
+    return new GeneRuleProgram(geneIndex, geneCount, program, start, maxStack);
+  }
+
+  /**
+   * Appends the postfix form of the given rule to the code.
+   *
+   * @param association
+   * @param idIndex the index of each gene product by its identifier.
+   * @param code
+   * @return the maximal stack depth required to evaluate the rule.
+   */
+  private static int compile(Association association, Map<String, Integer> idIndex, List<Integer> code) {
+    if (association instanceof GeneProductRef) {
+      Integer gene = idIndex.get(((GeneProductRef) association).getGeneProduct());
+      code.add(gene != null ? gene : FALSE);
+      return 1;
+    }
+    LogicalOperator operator = (LogicalOperator) association;
+    List<Association> operands = operator.getListOfAssociations();
+    int op = operator instanceof And ? AND : OR;
+    if (operands.isEmpty()) {
+      code.add(op == AND ? TRUE : FALSE);
+      return 1;
+    }
+    int depth = 0;
+    for (int i = 0; i < operands.size(); i++) {
+      // The result of all previous operands lies below the current one.
+      depth = Math.max(depth, compile(operands.get(i), idIndex, code) + (i > 0 ? 1 : 0));
+      if (i > 0) {
+        code.add(op);
+      }
+    }
+    return depth;
+  }
+
+  /**
+   * @return the number of gene products in the model.
+   */
+  public int getGeneCount() {
+    return geneCount;
+  }
+
+  /**
+   * @param gene the identifier or label of a gene product; if it is the
+   *        identifier of one gene product and the label of another one, the
+   *        former is found.
+   * @return its index or -1 if there is no such gene product.
+   */
+  public int indexOf(String gene) {
+    Integer index = geneIndex.get(gene);
+    return index != null ? index : -1;
+  }
+
+  /**
+   * Evaluates all rules for all tissues.
+   *
+   * @param genes for each gene product a bitmap over all tissues.
+   * @param words the number of 64-bit words per bitmap.
+   * @return for each reaction a bitmap of the tissues in which it is active.
+   *         Bits beyond the number of tissues may be set.
+   */
+  public long[][] evaluate(final long[][] genes, final int words) {
+    final long result[][] = new long[start.length - 1][];
+    IntStream.range(0, result.length).parallel().forEach(r -> {
+      long active[] = new long[words];
+      if (start[r] == start[r + 1]) {
+        Arrays.fill(active, -1L);
+      } else {
+        long stack[] = new long[maxStack];
+        for (int w = 0; w < words; w++) {
+          int sp = 0;
+          for (int pc = start[r]; pc < start[r + 1]; pc++) {
+            int op = code[pc];
+            if (op >= 0) {
+              stack[sp++] = genes[op][w];
+            } else if (op == AND) {
+              sp--;
+              stack[sp - 1] &= stack[sp];
+            } else if (op == OR) {
+              sp--;
+              stack[sp - 1] |= stack[sp];
+            } else {
+              stack[sp++] = op == TRUE ? -1L : 0L;
+            }
+          }
+          active[w] = stack[0];
+        }
+      }
+      result[r] = active;
+    });
+    return result;
+  }
+
+  /**
+   * Determines the reactions to keep for each tissue.
+   *
+   * @param geneLists for each tissue its name and the identifiers or labels
+   *        of the genes expressed in it.
+   * @return for each tissue its name and the (0-based, sorted) indices of the
+   *         reactions whose rule is satisfied or that have no rule, as
+   *         required by {@link TissueModelExtractor#buildSubModels(Map)}.
+   */
+  public Map<String, int[]> getReactionLists(Map<String, ? extends Collection<String>> geneLists) {
+    int tissues = geneLists.size();
+    int words = (tissues + 63) >>> 6;
+    long genes[][] = new long[geneCount][words];
+    int t = 0;
+    for (Map.Entry<String, ? extends Collection<String>> entry : geneLists.entrySet()) {
+      int unknown = 0;
+      for (String gene : entry.getValue()) {
+        int g = indexOf(gene);
+        if (g >= 0) {
+          genes[g][t >>> 6] |= 1L << t;
+        } else {
+          unknown++;
+        }
+      }
+      if (unknown > 0) {
+        logger.warning(format("{0}: {1,number,integer} genes not in the model", entry.getKey(), unknown));
+      }
+      t++;
+    }
+    long active[][] = evaluate(genes, words);
+
+    // First count, then fill, so that each list is allocated at its final size.
+    int sizes[] = new int[tissues];
+    for (long[] bits : active) {
+      for (int tissue = 0; tissue < tissues; tissue++) {
+        if ((bits[tissue >>> 6] & (1L << tissue)) != 0) {
+          sizes[tissue]++;
+        }
+      }
+    }
+    int lists[][] = new int[tissues][];
+    for (t = 0; t < tissues; t++) {
+      lists[t] = new int[sizes[t]];
+      sizes[t] = 0;
+    }
+    for (int r = 0; r < active.length; r++) {
+      for (int w = 0; w < words; w++) {
+        long word = active[r][w];
+        while (word != 0) {
+          int tissue = (w << 6) + Long.numberOfTrailingZeros(word);
+          if (tissue >= tissues) {
+            break;
+          }
+          lists[tissue][sizes[tissue]++] = r;
+          word &= word - 1;
+        }
+      }
+    }
+    Map<String, int[]> reactionLists = new LinkedHashMap<String, int[]>();
+    t = 0;
+    for (String name : geneLists.keySet()) {
+      reactionLists.put(name, lists[t++]);
+    }
+    return reactionLists;
+  }
+
+}
@@ -20,7 +20,6 @@ import org.sbml.jsbml.Parameter;
 import org.sbml.jsbml.SBMLDocument;
 import org.sbml.jsbml.SBMLReader;
 import org.sbml.jsbml.Species;
-import org.sbml.jsbml.TidySBMLWriter;
 import org.sbml.jsbml.Unit;
 import org.sbml.jsbml.Unit.Kind;
 import org.sbml.jsbml.util.ModelBuilder;
@@ -118,13 +117,16 @@ public class ModelCorrector implements TreeNodeChangeListener {
 
   /**
    * @param args Path to two files: original model and output.
+   *        Option {@code --output=tidy|compact} selects the output format (see
+   *        {@link SBMLOutput}).
    * @throws IOException
    * @throws XMLStreamException
    */
   public static void main(String[] args) throws XMLStreamException, IOException {
-    ModelCorrector mc = new ModelCorrector(SBMLReader.read(new File(args[0])));
+    Arguments arguments = new Arguments(args);
+    ModelCorrector mc = new ModelCorrector(SBMLReader.read(new File(arguments.get(0))));
     if (mc.isChanged()) {
-      TidySBMLWriter.write(mc.getSBMLDocument(), new File(args[1]), ' ', (short) 2);
+      SBMLOutput.write(mc.getSBMLDocument(), new File(arguments.get(1)), SBMLOutput.getMode(arguments));
     }
   }
 
@@ -3,22 +3,39 @@
  */
 package org.draegerlab.sbml;
 
+import static java.text.MessageFormat.format;
+
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.TransformerException;
 
 import org.apache.log4j.Logger;
+import org.jdom2.JDOMException;
 import org.sbml.jsbml.Model;
-import org.sbml.jsbml.Reaction;
 import org.sbml.jsbml.SBMLDocument;
 import org.sbml.jsbml.SBMLReader;
-import org.sbml.jsbml.TidySBMLWriter;
-import org.sbml.jsbml.ext.fbc.FBCConstants;
-import org.sbml.jsbml.ext.fbc.FBCReactionPlugin;
+
+import de.unirostock.sems.cbarchive.CombineArchiveException;
 
 /**
  * @author Andreas Dr&auml;ger
@@ -28,16 +45,58 @@ public class ModelVariantsCreator {
 
   private static transient Logger logger = Logger.getLogger(ModelVariantsCreator.class);
 
+  private static final String SBML_EXTENSION = ".xml";
+
   /**
-   * Changes means reaction ID, reversible, lower bound.
+   * Changes means reaction ID, reversible, lower bound, and optionally upper
+   * bound. Without option {@code --matrix}, an empty reversible column makes
+   * the reaction irreversible, as it always did; in the matrix CSV, empty
+   * columns leave the respective property unchanged.
    *
-   * @param args Original Model file, CSV file with changes, outfile, optional separator in CSV
+   * @param args Original Model file, CSV file with changes, outfile, optional
+   *        separator in CSV. With option {@code --matrix}, the CSV file
+   *        contains the name of a variant in its first column, followed by the
+   *        changes for this variant, and the outfile is a directory, in which
+   *        one model per variant is created. Option {@code --threads=n}
+   *        limits the number of variants written in parallel. Option
+   *        {@code --stream} patches the reactions while streaming the
+   *        original file instead of loading it into memory; in this mode,
+   *        model and output files ending with {@code .gz} are compressed.
+   *        Option {@code --comp} (implies {@code --matrix}) writes each variant
+   *        as a hierarchical model that refers to the base model and bundles
+   *        all of them in the COMBINE archive given as outfile.
+   *        Option {@code --output=tidy|compact} selects the output format (see
+   *        {@link SBMLOutput}); outfiles ending with {@code .gz} are compressed.
    *
    * @throws IOException
    * @throws XMLStreamException
+   * @throws NoSuchAlgorithmException
+   * @throws JDOMException
+   * @throws ParseException
+   * @throws CombineArchiveException
+   * @throws URISyntaxException
+   * @throws TransformerException
    */
-  public static void main(String[] args) throws XMLStreamException, IOException {
-    new ModelVariantsCreator(new File(args[0]), new File(args[1]), new File(args[2]), args.length > 3 ? args[3] : ";");
+  public static void main(String[] args) throws XMLStreamException, IOException, NoSuchAlgorithmException,
+  JDOMException, ParseException, CombineArchiveException, URISyntaxException, TransformerException {
+    Arguments arguments = new Arguments(args);
+    SBMLOutput.Mode mode = SBMLOutput.getMode(arguments);
+    File model = new File(arguments.get(0));
+    File csv = new File(arguments.get(1));
+    File out = new File(arguments.get(2));
+    String separator = arguments.get(3, ";");
+    int threads = arguments.getOption("threads", Runtime.getRuntime().availableProcessors());
+    if (arguments.isSet("comp")) {
+      CompVariantWriter.createArchive(model, csv, out, separator, mode);
+    } else if (arguments.isSet("matrix") && arguments.isSet("stream")) {
+      patchVariants(model, csv, out, separator, threads);
+    } else if (arguments.isSet("matrix")) {
+      createVariants(model, csv, out, separator, threads, mode);
+    } else if (arguments.isSet("stream")) {
+      new ReactionPatcher(readEdits(csv, separator)).patch(model, out);
+    } else {
+      new ModelVariantsCreator(model, csv, out, separator, mode);
+    }
   }
 
   /**
@@ -48,31 +107,263 @@ public class ModelVariantsCreator {
    */
   public ModelVariantsCreator(File model, File csv, File out, String separator)
       throws XMLStreamException, IOException, FileNotFoundException {
+    this(model, csv, out, separator, SBMLOutput.DEFAULT_MODE);
+  }
+
+  /**
+   * @param model
+   * @param csv
+   * @param out
+   * @param separator
+   * @param mode how to write the changed model.
+   * @throws XMLStreamException
+   * @throws IOException
+   * @throws FileNotFoundException
+   */
+  public ModelVariantsCreator(File model, File csv, File out, String separator, SBMLOutput.Mode mode)
+      throws XMLStreamException, IOException, FileNotFoundException {
     SBMLDocument doc = SBMLReader.read(model);
     Model m = doc.getModel();
+    for (ReactionEdit edit : readEdits(csv, separator)) {
+      edit.apply(m);
+      logger.info(edit);
+    }
+    SBMLOutput.write(doc, out, mode);
+  }
 
+  /**
+   * Reads a CSV file with a header line and one change per row. An empty
+   * reversible column means {@code false}.
+   *
+   * @param csv
+   * @param separator
+   * @return the changes in the order of the file.
+   * @throws IOException
+   */
+  public static List<ReactionEdit> readEdits(File csv, String separator) throws IOException {
+    List<ReactionEdit> edits = new ArrayList<ReactionEdit>();
     BufferedReader bf = new BufferedReader(new FileReader(csv));
     String line;
     int row = 0;
     while ((line = bf.readLine()) != null) {
-      if (row > 0) {
-        processCurrentRow(line, separator, m);
+      if ((row > 0) && !line.trim().isEmpty()) {
+        edits.add(ReactionEdit.parse(line.split(separator), 0, Boolean.FALSE));
         logger.info(row);
       }
       row++;
     }
     bf.close();
+    return edits;
+  }
+
+  /**
+   * Reads a CSV file with a header line, in which each row contains the name
+   * of a variant followed by one change for this variant.
+   *
+   * @param csv
+   * @param separator
+   * @return the changes grouped by variant name in order of first occurrence.
+   * @throws IOException
+   */
+  public static Map<String, List<ReactionEdit>> readVariants(File csv, String separator) throws IOException {
+    Map<String, List<ReactionEdit>> variants = new LinkedHashMap<String, List<ReactionEdit>>();
+    // file names of all variants, lower case for case-insensitive file systems
+    Map<String, String> fileNames = new HashMap<String, String>();
+    BufferedReader bf = new BufferedReader(new FileReader(csv));
+    String line;
+    int row = 0;
+    while ((line = bf.readLine()) != null) {
+      if ((row > 0) && !line.trim().isEmpty()) {
+        String columns[] = line.split(separator);
+        String name = columns[0].trim();
+        List<ReactionEdit> edits = variants.get(name);
+        if (edits == null) {
+          String other = fileNames.put(toFileName(name).toLowerCase(), name);
+          if (other != null) {
+            bf.close();
+            throw new IOException(format("Variants ''{0}'' and ''{1}'' in {2} would be written to the same file", other, name, csv.getName()));
+          }
+          edits = new ArrayList<ReactionEdit>();
+          variants.put(name, edits);
+        }
+        edits.add(ReactionEdit.parse(columns, 1));
+      }
+      row++;
+    }
+    bf.close();
+    logger.info(variants.size() + " variants in " + csv.getName());
+    return variants;
+  }
 
-    TidySBMLWriter.write(doc, out, ' ', (short) 2);
+  /**
+   * Turns the name of a variant (or tissue) into a file name (without
+   * extension) that stays within the output directory: blanks are swapped with underscores
+   * like in descriptors, and so is every character other than letters,
+   * digits, {@code -}, {@code _}, and non-leading {@code .}.
+   *
+   * @param name the name of a variant or tissue.
+   * @return the file name for that name.
+   * @throws IllegalArgumentException if the name is empty.
+   */
+  public static String toFileName(String name) {
+    if (name.isEmpty()) {
+      throw new IllegalArgumentException("Cannot derive a file name from an empty name");
+    }
+    StringBuilder sb = new StringBuilder(name.length());
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      boolean valid = ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')) || ((c >= '0') && (c <= '9'))
+          || (c == '-') || (c == '_') || ((c == '.') && (i > 0));
+      sb.append(valid ? c : '_');
+    }
+    return sb.toString();
   }
 
-  private void processCurrentRow(String line, String separator, Model m) {
-    String columns[] = line.split(separator);
-    Reaction r = m.getReaction(columns[0]);
-    r.setReversible(Boolean.parseBoolean(columns[1]));
-    FBCReactionPlugin rplug = (FBCReactionPlugin) r.getPlugin(FBCConstants.shortLabel);
-    rplug.setLowerFluxBound(columns[2]);
-    logger.info(line);
+  /**
+   * Writes one model per variant into the given directory. The base model is
+   * parsed only once. Every worker thread operates on its own copy of it and
+   * produces its variants by applying the changes, writing the model, and
+   * reverting the changes again, so that no copy per variant is needed.
+   *
+   * @param model the base model.
+   * @param csv the file with the changes per variant.
+   * @param outDir where to write the variants.
+   * @param separator separator in the CSV file.
+   * @param threads maximal number of variants to be written in parallel.
+   * @param mode how to write the variants.
+   * @return the files of the variants in the order of the CSV file.
+   * @throws XMLStreamException
+   * @throws IOException
+   */
+  public static List<File> createVariants(File model, File csv, final File outDir, String separator, int threads,
+    final SBMLOutput.Mode mode) throws XMLStreamException, IOException {
+    final Map<String, List<ReactionEdit>> variants = readVariants(csv, separator);
+    final List<String> names = new ArrayList<String>(variants.keySet());
+    final File files[] = new File[names.size()];
+    if (!outDir.exists()) {
+      outDir.mkdirs();
+    }
+    SBMLDocument doc = SBMLReader.read(model);
+    final int workers = Math.max(1, Math.min(threads, names.size()));
+    List<SBMLDocument> copies = new ArrayList<SBMLDocument>(workers);
+    copies.add(doc);
+    for (int w = 1; w < workers; w++) {
+      copies.add(doc.clone());
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(workers);
+    List<Future<Void>> futures = new ArrayList<Future<Void>>(workers);
+    for (int w = 0; w < workers; w++) {
+      final int offset = w;
+      final SBMLDocument copy = copies.get(w);
+      futures.add(executor.submit(() -> {
+        for (int i = offset; i < names.size(); i += workers) {
+          String name = names.get(i);
+          files[i] = writeVariant(copy, variants.get(name), new File(outDir, toFileName(name) + SBML_EXTENSION), mode);
+        }
+        return null;
+      }));
+    }
+    await(executor, futures);
+    return Arrays.asList(files);
+  }
+
+  /**
+   * Writes one model per variant into the given directory by streaming the
+   * base model through a {@link ReactionPatcher} for each variant. The base
+   * model is never loaded into memory, so that all variants can be created in
+   * parallel.
+   *
+   * @param model the base model.
+   * @param csv the file with the changes per variant.
+   * @param outDir where to write the variants.
+   * @param separator separator in the CSV file.
+   * @param threads maximal number of variants to be written in parallel.
+   * @return the files of the variants in the order of the CSV file.
+   * @throws XMLStreamException
+   * @throws IOException
+   */
+  public static List<File> patchVariants(final File model, File csv, File outDir, String separator, int threads)
+      throws XMLStreamException, IOException {
+    Map<String, List<ReactionEdit>> variants = readVariants(csv, separator);
+    List<File> files = new ArrayList<File>(variants.size());
+    if (!outDir.exists()) {
+      outDir.mkdirs();
+    }
+    String extension = model.getName().endsWith(".gz") ? SBML_EXTENSION + ".gz" : SBML_EXTENSION;
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, variants.size())));
+    List<Future<Void>> futures = new ArrayList<Future<Void>>(variants.size());
+    for (Map.Entry<String, List<ReactionEdit>> variant : variants.entrySet()) {
+      final File out = new File(outDir, toFileName(variant.getKey()) + extension);
+      final ReactionPatcher patcher = new ReactionPatcher(variant.getValue());
+      files.add(out);
+      futures.add(executor.submit(() -> {
+        patcher.patch(model, out);
+        return null;
+      }));
+    }
+    await(executor, futures);
+    return files;
+  }
+
+  /**
+   * Shuts the executor down and waits for all tasks to be completed.
+   *
+   * @param executor
+   * @param futures
+   * @throws XMLStreamException the first such exception thrown by a task.
+   * @throws IOException the first such exception thrown by a task.
+   */
+  private static void await(ExecutorService executor, List<Future<Void>> futures)
+      throws XMLStreamException, IOException {
+    executor.shutdown();
+    try {
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+      throw new IOException(exc);
+    } catch (ExecutionException exc) {
+      executor.shutdownNow();
+      Throwable cause = exc.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof XMLStreamException) {
+        throw (XMLStreamException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * Applies the changes to the document, writes it, and reverts the changes.
+   *
+   * @param doc
+   * @param edits
+   * @param out
+   * @param mode
+   * @return the written file.
+   * @throws XMLStreamException
+   * @throws IOException
+   */
+  private static File writeVariant(SBMLDocument doc, List<ReactionEdit> edits, File out, SBMLOutput.Mode mode)
+      throws XMLStreamException, IOException {
+    Model m = doc.getModel();
+    Deque<ReactionEdit> undo = new ArrayDeque<ReactionEdit>(edits.size());
+    try {
+      for (ReactionEdit edit : edits) {
+        undo.push(edit.apply(m));
+      }
+      SBMLOutput.write(doc, out, mode);
+      logger.info(out.getAbsolutePath());
+    } finally {
+      while (!undo.isEmpty()) {
+        undo.pop().apply(m);
+      }
+    }
+    return out;
   }
 
 }
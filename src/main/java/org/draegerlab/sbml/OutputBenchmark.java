@@ -0,0 +1,58 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.sbml.jsbml.SBMLDocument;
+import org.sbml.jsbml.SBMLReader;
+
+/**
+ * Compares the output modes of {@link SBMLOutput} with respect to file size
+ * and write throughput for a given model.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class OutputBenchmark {
+
+  /**
+   * @param args
+   *        1) The model to be written
+   *        2) Optional number of repetitions per mode (default: 5)
+   *        Option {@code --dir=<directory>} where to place the temporary
+   *        files.
+   * @throws XMLStreamException
+   * @throws IOException
+   */
+  public static void main(String[] args) throws XMLStreamException, IOException {
+    Arguments arguments = new Arguments(args);
+    SBMLDocument doc = SBMLReader.read(new File(arguments.get(0)));
+    int repetitions = Integer.parseInt(arguments.get(1, "5"));
+    String dir = arguments.getOption("dir", null);
+    File directory = dir != null ? new File(dir) : null;
+
+    System.out.printf("%-14s\t%12s\t%10s\t%10s\n", "mode", "bytes", "ms", "MB/s");
+    for (SBMLOutput.Mode mode : SBMLOutput.Mode.values()) {
+      for (String extension : new String[] {".xml", ".xml.gz"}) {
+        File file = File.createTempFile("benchmark_", extension, directory);
+        file.deleteOnExit();
+        // Warm-up run, not measured
+        SBMLOutput.write(doc, file, mode);
+        long time = System.nanoTime();
+        for (int i = 0; i < repetitions; i++) {
+          SBMLOutput.write(doc, file, mode);
+        }
+        double ms = (System.nanoTime() - time) / 1E6d / repetitions;
+        System.out.printf("%-14s\t%12d\t%10.1f\t%10.1f\n",
+          mode.name().toLowerCase() + extension, file.length(), ms,
+          file.length() / 1048576d / (ms / 1000d));
+        file.delete();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,205 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static java.text.MessageFormat.format;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.sbml.jsbml.Model;
+import org.sbml.jsbml.SBMLDocument;
+import org.sbml.jsbml.SBMLError;
+import org.sbml.jsbml.SBMLReader;
+
+/**
+ * Applies several of the tools in this package as {@link Stage}s to the same
+ * document, which is read only once at the beginning and written only once at
+ * the end. The following stages are available:
+ * <ul>
+ * <li>{@code correct}: {@link ModelCorrector}
+ * <li>{@code fix-layout-ids=<escher.xml>}: {@link FixLayoutIDs}
+ * <li>{@code fix-layout-internal-ids}: {@link FixLayoutInternalIDs}
+ * <li>{@code set-variants=<changes.csv>}: {@link ModelVariantsCreator} (CSV
+ * separated by semicolons)
+ * <li>{@code validate}: {@link Validate}
+ * </ul>
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class Pipeline {
+
+  /** A {@link Logger} for this class */
+  private static final Logger logger = Logger.getLogger(Pipeline.class.getName());
+
+  /** The stages in the order of their application */
+  private final Map<String, Stage> stages = new LinkedHashMap<String, Stage>();
+  /** How {@link #run(File, File)} writes the result */
+  private SBMLOutput.Mode outputMode = SBMLOutput.DEFAULT_MODE;
+
+  /**
+   * @param args
+   *        1) Input: the SBML file to be processed
+   *        2) Output: the file to write the result to
+   *        3...) the stages to be applied in this order, each in the form
+   *        {@code name} or {@code name=argument}
+   *        Option {@code --output=tidy|compact} selects the output format (see
+   *        {@link SBMLOutput}).
+   * @throws XMLStreamException
+   * @throws IOException
+   */
+  public static void main(String[] args) throws XMLStreamException, IOException {
+    Arguments arguments = new Arguments(args);
+    Pipeline pipeline = new Pipeline().setOutputMode(SBMLOutput.getMode(arguments));
+    for (String stage : arguments.getPositional().subList(2, arguments.size())) {
+      int eq = stage.indexOf('=');
+      pipeline.add(eq > 0 ? stage.substring(0, eq) : stage, eq > 0 ? stage.substring(eq + 1) : null);
+    }
+    pipeline.run(new File(arguments.get(0)), new File(arguments.get(1)));
+  }
+
+  /**
+   * @param outputMode how {@link #run(File, File)} writes the result.
+   * @return this pipeline.
+   */
+  public Pipeline setOutputMode(SBMLOutput.Mode outputMode) {
+    this.outputMode = outputMode;
+    return this;
+  }
+
+  /**
+   * Appends the stage with the given name.
+   *
+   * @param name
+   * @param argument the argument of the stage or {@code null} if it does not
+   *        require one.
+   * @return this pipeline.
+   */
+  public Pipeline add(String name, String argument) {
+    return addStage(name, createStage(name, argument));
+  }
+
+  /**
+   * Appends the given stage. If another stage has the same name, the label
+   * gets a suffix {@code #i}, so that both stages are applied.
+   *
+   * @param name a label for log messages.
+   * @param stage
+   * @return this pipeline.
+   */
+  public Pipeline addStage(String name, Stage stage) {
+    String key = name;
+    for (int i = 2; stages.containsKey(key); i++) {
+      key = name + '#' + i;
+    }
+    stages.put(key, stage);
+    return this;
+  }
+
+  /**
+   * Reads the input file, applies all stages, writes the output file, and
+   * logs the time required for each step.
+   *
+   * @param in
+   * @param out
+   * @return the processed document.
+   * @throws XMLStreamException
+   * @throws IOException
+   */
+  public SBMLDocument run(File in, File out) throws XMLStreamException, IOException {
+    long time = System.currentTimeMillis();
+    SBMLDocument doc = SBMLReader.read(in);
+    time = log("read", time);
+    run(doc);
+    time = System.currentTimeMillis();
+    SBMLOutput.write(doc, out, outputMode);
+    log("write", time);
+    return doc;
+  }
+
+  /**
+   * Applies all stages to the given document.
+   *
+   * @param doc
+   * @throws XMLStreamException
+   * @throws IOException
+   */
+  public void run(SBMLDocument doc) throws XMLStreamException, IOException {
+    for (Map.Entry<String, Stage> entry : stages.entrySet()) {
+      long time = System.currentTimeMillis();
+      entry.getValue().apply(doc);
+      log(entry.getKey(), time);
+    }
+  }
+
+  /**
+   * @param step
+   * @param start
+   * @return the current time.
+   */
+  private static long log(String step, long start) {
+    long end = System.currentTimeMillis();
+    logger.info(format("{0}:\t{1,number,integer} ms", step, end - start));
+    return end;
+  }
+
+  /**
+   * @param name
+   * @param argument
+   * @return the stage with the given name.
+   * @throws IllegalArgumentException if there is no such stage or its
+   *         argument is missing.
+   */
+  public static Stage createStage(String name, final String argument) {
+    switch (name) {
+    case "correct":
+      return doc -> ModelCorrector.correct(doc);
+    case "fix-layout-ids":
+      requireArgument(name, argument);
+      return doc -> {
+        int count = FixLayoutIDs.insertLayout(SBMLReader.read(new File(argument)), doc);
+        logger.info(format("Corrected {0,number,integer} references to the model", count));
+      };
+    case "fix-layout-internal-ids":
+      return doc -> {
+        int count = FixLayoutInternalIDs.fixSpeciesReferences(doc);
+        logger.info(format("Rewired {0,number,integer} species references", count));
+      };
+    case "set-variants":
+      requireArgument(name, argument);
+      return doc -> {
+        List<ReactionEdit> edits = ModelVariantsCreator.readEdits(new File(argument), ";");
+        Model m = doc.getModel();
+        for (ReactionEdit edit : edits) {
+          edit.apply(m);
+        }
+      };
+    case "validate":
+      return doc -> {
+        for (SBMLError e : Validate.check(doc)) {
+          logger.warning(e.getMessage());
+        }
+      };
+    default:
+      throw new IllegalArgumentException(format("Unknown stage ''{0}''", name));
+    }
+  }
+
+  /**
+   * @param name
+   * @param argument
+   */
+  private static void requireArgument(String name, String argument) {
+    if (argument == null) {
+      throw new IllegalArgumentException(format("Stage ''{0}'' requires an argument of the form {0}=<file>", name));
+    }
+  }
+
+}
@@ -0,0 +1,182 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static java.text.MessageFormat.format;
+
+import org.sbml.jsbml.Model;
+import org.sbml.jsbml.Reaction;
+import org.sbml.jsbml.ext.fbc.FBCConstants;
+import org.sbml.jsbml.ext.fbc.FBCReactionPlugin;
+
+/**
+ * A change to a single reaction, i.e., its reversibility and the identifiers
+ * of the parameters that serve as its lower and upper flux bound. Each part of
+ * the change is optional: a {@code null} value leaves the corresponding
+ * property of the reaction untouched, whereas an empty bound identifier
+ * removes the bound from the reaction.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class ReactionEdit {
+
+  private final String reactionId;
+  private final Boolean reversible;
+  private final String lowerFluxBound;
+  private final String upperFluxBound;
+
+  /**
+   * @param reactionId the identifier of the reaction to be changed.
+   * @param reversible the new reversibility or {@code null}.
+   * @param lowerFluxBound the identifier of the parameter for the new lower
+   *        flux bound or {@code null}.
+   * @param upperFluxBound the identifier of the parameter for the new upper
+   *        flux bound or {@code null}.
+   */
+  public ReactionEdit(String reactionId, Boolean reversible,
+    String lowerFluxBound, String upperFluxBound) {
+    this.reactionId = reactionId;
+    this.reversible = reversible;
+    this.lowerFluxBound = lowerFluxBound;
+    this.upperFluxBound = upperFluxBound;
+  }
+
+  /**
+   * Creates a change from the columns of a row in a CSV file, which contain
+   * the reaction ID, reversible, lower bound and (optionally) the upper bound.
+   * Empty or missing columns leave the respective property unchanged.
+   *
+   * @param columns the columns of the row.
+   * @param offset the index of the column with the reaction ID.
+   * @return the change described by the given row.
+   */
+  public static ReactionEdit parse(String[] columns, int offset) {
+    return parse(columns, offset, null);
+  }
+
+  /**
+   * Like {@link #parse(String[], int)}, but with a value for an empty or
+   * missing reversible column.
+   *
+   * @param columns the columns of the row.
+   * @param offset the index of the column with the reaction ID.
+   * @param defaultReversible the reversibility if the column is empty;
+   *        {@code null} leaves it unchanged.
+   * @return the change described by the given row.
+   */
+  public static ReactionEdit parse(String[] columns, int offset, Boolean defaultReversible) {
+    String reversible = column(columns, offset + 1);
+    return new ReactionEdit(columns[offset].trim(),
+      reversible != null ? Boolean.valueOf(reversible) : defaultReversible,
+      column(columns, offset + 2), column(columns, offset + 3));
+  }
+
+  /**
+   * @param columns
+   * @param i
+   * @return the trimmed content of the column or {@code null} if the column
+   *         is missing or empty.
+   */
+  private static String column(String[] columns, int i) {
+    if (i < columns.length) {
+      String value = columns[i].trim();
+      if (!value.isEmpty()) {
+        return value;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Applies this change to the given model.
+   *
+   * @param m the model to be changed.
+   * @return a change that restores the previous state of the reaction.
+   * @throws IllegalArgumentException if the model does not contain the
+   *         reaction or if a new flux bound is to be set on a reaction that
+   *         has no fbc extension. Removing a bound from such a reaction has
+   *         no effect.
+   */
+  public ReactionEdit apply(Model m) {
+    Reaction r = m.getReaction(reactionId);
+    if (r == null) {
+      throw new IllegalArgumentException(format("No reaction with id ''{0}'' in model ''{1}''", reactionId, m.getId()));
+    }
+    // Do not create an empty fbc plugin on reactions without one.
+    FBCReactionPlugin rplug = (FBCReactionPlugin) r.getExtension(FBCConstants.shortLabel);
+    if ((rplug == null) && (isSet(lowerFluxBound) || isSet(upperFluxBound))) {
+      throw new IllegalArgumentException(format("Reaction ''{0}'' in model ''{1}'' has no fbc extension for flux bounds", reactionId, m.getId()));
+    }
+    ReactionEdit previous = new ReactionEdit(reactionId,
+      reversible != null ? Boolean.valueOf(r.getReversible()) : null,
+      lowerFluxBound != null ? ((rplug != null) && rplug.isSetLowerFluxBound() ? rplug.getLowerFluxBound() : "") : null,
+      upperFluxBound != null ? ((rplug != null) && rplug.isSetUpperFluxBound() ? rplug.getUpperFluxBound() : "") : null);
+    if (reversible != null) {
+      r.setReversible(reversible.booleanValue());
+    }
+    if (rplug == null) {
+      return previous;
+    }
+    if (lowerFluxBound != null) {
+      if (lowerFluxBound.isEmpty()) {
+        rplug.unsetLowerFluxBound();
+      } else {
+        rplug.setLowerFluxBound(lowerFluxBound);
+      }
+    }
+    if (upperFluxBound != null) {
+      if (upperFluxBound.isEmpty()) {
+        rplug.unsetUpperFluxBound();
+      } else {
+        rplug.setUpperFluxBound(upperFluxBound);
+      }
+    }
+    return previous;
+  }
+
+  /**
+   * @param bound
+   * @return {@code true} if the given bound identifier sets a new bound.
+   */
+  private static boolean isSet(String bound) {
+    return (bound != null) && !bound.isEmpty();
+  }
+
+  /**
+   * @return the identifier of the reaction to be changed.
+   */
+  public String getReactionId() {
+    return reactionId;
+  }
+
+  /**
+   * @return the new reversibility or {@code null} if it remains unchanged.
+   */
+  public Boolean getReversible() {
+    return reversible;
+  }
+
+  /**
+   * @return the identifier of the new lower flux bound parameter or
+   *         {@code null} if it remains unchanged.
+   */
+  public String getLowerFluxBound() {
+    return lowerFluxBound;
+  }
+
+  /**
+   * @return the identifier of the new upper flux bound parameter or
+   *         {@code null} if it remains unchanged.
+   */
+  public String getUpperFluxBound() {
+    return upperFluxBound;
+  }
+
+  @Override
+  public String toString() {
+    return format("{0}: reversible={1}, lowerFluxBound={2}, upperFluxBound={3}",
+      reactionId, reversible, lowerFluxBound, upperFluxBound);
+  }
+
+}
@@ -0,0 +1,241 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static java.text.MessageFormat.format;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Applies {@link ReactionEdit}s to an SBML file without building the JSBML
+ * tree. The file is passed event by event through a StAX reader and writer;
+ * only the attributes {@code reversible}, {@code fbc:lowerFluxBound}, and
+ * {@code fbc:upperFluxBound} of the affected {@code reaction} elements are
+ * rewritten, all other content is copied as it is. Memory consumption is
+ * therefore independent of the size of the model.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class ReactionPatcher {
+
+  /** Common beginning of the namespace URIs of all SBML Level 3 documents */
+  public static final String SBML_L3_NAMESPACE = "http://www.sbml.org/sbml/level3/";
+  /** Common beginning of the namespace URIs of all versions of fbc */
+  public static final String FBC_NAMESPACE = "http://www.sbml.org/sbml/level3/version1/fbc/";
+  /** The namespace URI of fbc version 2, which defines the flux bound attributes */
+  public static final String FBC_V2_NAMESPACE = FBC_NAMESPACE + "version2";
+
+  private static final String GZ_EXTENSION = ".gz";
+  private static final int BUFFER = 1 << 16;
+
+  /** A {@link Logger} for this class */
+  private static final Logger logger = Logger.getLogger(ReactionPatcher.class.getName());
+
+  /** Changes to be applied, keyed by reaction identifier */
+  private final Map<String, ReactionEdit> edits;
+
+  /**
+   * @param edits the changes to be applied. If several changes address the
+   *        same reaction, the later ones take precedence for those properties
+   *        they set.
+   */
+  public ReactionPatcher(Collection<ReactionEdit> edits) {
+    this.edits = new HashMap<String, ReactionEdit>();
+    for (ReactionEdit edit : edits) {
+      ReactionEdit previous = this.edits.get(edit.getReactionId());
+      if (previous != null) {
+        edit = new ReactionEdit(edit.getReactionId(),
+          edit.getReversible() != null ? edit.getReversible() : previous.getReversible(),
+          edit.getLowerFluxBound() != null ? edit.getLowerFluxBound() : previous.getLowerFluxBound(),
+          edit.getUpperFluxBound() != null ? edit.getUpperFluxBound() : previous.getUpperFluxBound());
+      }
+      this.edits.put(edit.getReactionId(), edit);
+    }
+  }
+
+  /**
+   * Patches the given file. Files whose name ends with {@code .gz} are read or
+   * written in compressed form.
+   *
+   * @param in the original SBML file.
+   * @param out the file to be created.
+   * @return the number of reactions that have been changed.
+   * @throws IOException
+   * @throws XMLStreamException
+   */
+  public int patch(File in, File out) throws IOException, XMLStreamException {
+    InputStream is = new BufferedInputStream(new FileInputStream(in), BUFFER);
+    try {
+      if (in.getName().endsWith(GZ_EXTENSION)) {
+        is = new GZIPInputStream(is, BUFFER);
+      }
+      OutputStream os = new BufferedOutputStream(new FileOutputStream(out), BUFFER);
+      try {
+        if (out.getName().endsWith(GZ_EXTENSION)) {
+          os = new GZIPOutputStream(os, BUFFER);
+        }
+        int count = patch(is, os);
+        logger.info(format("Changed {0,number,integer} reactions in {1}", count, out.getAbsolutePath()));
+        return count;
+      } finally {
+        os.close();
+      }
+    } finally {
+      is.close();
+    }
+  }
+
+  /**
+   * Copies an SBML document from the input to the output stream and applies
+   * all changes on the fly. Neither stream is closed.
+   *
+   * @param in
+   * @param out
+   * @return the number of reactions that have been changed.
+   * @throws XMLStreamException
+   */
+  public int patch(InputStream in, OutputStream out) throws XMLStreamException {
+    XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+    inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    XMLEventReader reader = inputFactory.createXMLEventReader(in);
+    XMLEventWriter writer = XMLOutputFactory.newInstance().createXMLEventWriter(out, "UTF-8");
+    XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+    Set<String> patched = new HashSet<String>();
+    // any other version of fbc declared in the document, for error messages
+    String otherFbcNamespace = null;
+    while (reader.hasNext()) {
+      XMLEvent event = reader.nextEvent();
+      if (event.isStartElement()) {
+        StartElement element = event.asStartElement();
+        QName name = element.getName();
+        for (Iterator<?> iter = element.getNamespaces(); iter.hasNext();) {
+          String uri = ((Namespace) iter.next()).getNamespaceURI();
+          if (uri.startsWith(FBC_NAMESPACE) && !uri.equals(FBC_V2_NAMESPACE)) {
+            otherFbcNamespace = uri;
+          }
+        }
+        if (name.getLocalPart().equals("reaction") && name.getNamespaceURI().startsWith(SBML_L3_NAMESPACE)) {
+          Attribute id = element.getAttributeByName(new QName("id"));
+          ReactionEdit edit = id != null ? edits.get(id.getValue()) : null;
+          if (edit != null) {
+            // fbc may be declared on any ancestor of the reaction or on the reaction itself
+            String fbcPrefix = element.getNamespaceContext().getPrefix(FBC_V2_NAMESPACE);
+            event = patch(element, edit, fbcPrefix, fbcPrefix != null ? FBC_V2_NAMESPACE : otherFbcNamespace, eventFactory);
+            patched.add(edit.getReactionId());
+          }
+        }
+      }
+      writer.add(event);
+    }
+    writer.flush();
+    writer.close();
+    reader.close();
+    if (patched.size() < edits.size()) {
+      for (String reactionId : edits.keySet()) {
+        if (!patched.contains(reactionId)) {
+          logger.warning(format("No reaction with id ''{0}'' could be found", reactionId));
+        }
+      }
+    }
+    return patched.size();
+  }
+
+  /**
+   * @param element the start of a reaction element.
+   * @param edit the changes for this reaction.
+   * @param fbcPrefix the prefix of fbc version 2 in the scope of the
+   *        element or {@code null} if it is not declared.
+   * @param fbcNamespace the namespace of fbc version 2, or of another fbc
+   *        version if only that is declared, or {@code null}.
+   * @param eventFactory
+   * @return a copy of the given element with updated attributes.
+   * @throws XMLStreamException if flux bounds are to be changed, but fbc
+   *         version 2 is not declared for the element.
+   */
+  private StartElement patch(StartElement element, ReactionEdit edit,
+    String fbcPrefix, String fbcNamespace, XMLEventFactory eventFactory)
+        throws XMLStreamException {
+    if ((fbcPrefix == null) && ((edit.getLowerFluxBound() != null) || (edit.getUpperFluxBound() != null))) {
+      if (fbcNamespace != null) {
+        throw new XMLStreamException(format("Cannot change flux bounds of reaction ''{0}'': only fbc version 2 is supported, found {1}", edit.getReactionId(), fbcNamespace), element.getLocation());
+      }
+      throw new XMLStreamException(format("Cannot set flux bounds of reaction ''{0}'' without fbc namespace", edit.getReactionId()), element.getLocation());
+    }
+    String reversible = edit.getReversible() != null ? edit.getReversible().toString() : null;
+    String lower = edit.getLowerFluxBound();
+    String upper = edit.getUpperFluxBound();
+    List<Attribute> attributes = new ArrayList<Attribute>();
+    for (Iterator<?> iter = element.getAttributes(); iter.hasNext();) {
+      Attribute attribute = (Attribute) iter.next();
+      QName name = attribute.getName();
+      String value = attribute.getValue();
+      if (name.getNamespaceURI().isEmpty() && name.getLocalPart().equals("reversible") && (reversible != null)) {
+        value = reversible;
+        reversible = null;
+      } else if (name.getNamespaceURI().equals(fbcNamespace)) {
+        if (name.getLocalPart().equals("lowerFluxBound") && (lower != null)) {
+          value = lower;
+          lower = null;
+          if (value.isEmpty()) {
+            // this edit removes the bound
+            continue;
+          }
+        } else if (name.getLocalPart().equals("upperFluxBound") && (upper != null)) {
+          value = upper;
+          upper = null;
+          if (value.isEmpty()) {
+            continue;
+          }
+        }
+      }
+      // all other attributes are copied as they are, even if empty
+      attributes.add(value.equals(attribute.getValue()) ? attribute
+        : eventFactory.createAttribute(name.getPrefix(), name.getNamespaceURI(), name.getLocalPart(), value));
+    }
+    if (reversible != null) {
+      attributes.add(eventFactory.createAttribute("reversible", reversible));
+    }
+    if ((lower != null) && !lower.isEmpty()) {
+      attributes.add(eventFactory.createAttribute(fbcPrefix, fbcNamespace, "lowerFluxBound", lower));
+    }
+    if ((upper != null) && !upper.isEmpty()) {
+      attributes.add(eventFactory.createAttribute(fbcPrefix, fbcNamespace, "upperFluxBound", upper));
+    }
+    QName name = element.getName();
+    return eventFactory.createStartElement(name.getPrefix(), name.getNamespaceURI(),
+      name.getLocalPart(), attributes.iterator(), element.getNamespaces(),
+      element.getNamespaceContext());
+  }
+
+}
@@ -0,0 +1,403 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static java.text.MessageFormat.format;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * A binary matrix that records for each tissue (row) which reactions of the
+ * base model (columns, in the order of the base model) it contains. Each row
+ * is a bitmap of 64-bit words, so that set operations between tissues are
+ * computed word by word.
+ * <p>
+ * The binary file format consists of a magic number, a format version, the
+ * number of reactions and rows, all reaction identifiers and row names, and
+ * finally the words of all rows.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class ReactionPresenceMatrix {
+
+  /** Default file extension */
+  public static final String EXTENSION = ".rpm";
+
+  private static final int MAGIC = 0x52504d58;
+  private static final int VERSION = 1;
+
+  /** Identifiers of the reactions, i.e., the columns */
+  private final List<String> reactionIds;
+  /** Names of the rows */
+  private final List<String> rowNames;
+  /** The bitmap of each row */
+  private final long[][] rows;
+
+  /**
+   * @param args
+   *        1) The matrix file
+   *        2) Command:
+   *        {@code stats}: number of reactions per row,
+   *        {@code similarity}: pairwise Jaccard index of all rows,
+   *        {@code compare <row> <row>}: overlap of two rows,
+   *        {@code core}: reactions contained in all rows,
+   *        {@code unique <row>}: reactions only contained in the given row.
+   * @throws IOException
+   */
+  public static void main(String[] args) throws IOException {
+    Arguments arguments = new Arguments(args);
+    ReactionPresenceMatrix matrix = read(new File(arguments.get(0)));
+    String command = arguments.get(1);
+    if (command.equals("stats")) {
+      for (int i = 0; i < matrix.getRowCount(); i++) {
+        System.out.printf("%s\t%d\n", matrix.getRowName(i), matrix.count(i));
+      }
+    } else if (command.equals("similarity")) {
+      double similarity[][] = matrix.similarity();
+      StringBuilder sb = new StringBuilder();
+      for (String name : matrix.rowNames) {
+        sb.append('\t').append(name);
+      }
+      System.out.println(sb);
+      for (int i = 0; i < similarity.length; i++) {
+        sb = new StringBuilder(matrix.getRowName(i));
+        for (double value : similarity[i]) {
+          sb.append('\t').append(String.format("%.4f", value));
+        }
+        System.out.println(sb);
+      }
+    } else if (command.equals("compare")) {
+      int a = matrix.indexOf(arguments.get(2)), b = matrix.indexOf(arguments.get(3));
+      int intersection = matrix.intersection(a, b);
+      System.out.printf("%s\t%d\n%s\t%d\nboth\t%d\n%s only\t%d\n%s only\t%d\njaccard\t%.4f\n",
+        arguments.get(2), matrix.count(a), arguments.get(3), matrix.count(b), intersection,
+        arguments.get(2), matrix.count(a) - intersection, arguments.get(3), matrix.count(b) - intersection,
+        matrix.jaccard(a, b));
+    } else if (command.equals("core")) {
+      for (String id : matrix.getReactionIds(matrix.core())) {
+        System.out.println(id);
+      }
+    } else if (command.equals("unique")) {
+      for (String id : matrix.getReactionIds(matrix.unique(matrix.indexOf(arguments.get(2))))) {
+        System.out.println(id);
+      }
+    } else {
+      throw new IllegalArgumentException(format("Unknown command ''{0}''", command));
+    }
+  }
+
+  /**
+   * @param reactionIds identifiers of all reactions in the base model in their
+   *        original order.
+   * @param rowNames the names of the rows.
+   * @param rows the bitmap of each row.
+   */
+  public ReactionPresenceMatrix(List<String> reactionIds, List<String> rowNames, long[][] rows) {
+    this.reactionIds = Collections.unmodifiableList(reactionIds);
+    this.rowNames = Collections.unmodifiableList(rowNames);
+    this.rows = rows;
+  }
+
+  /**
+   * Creates a matrix from lists of reaction indices as used by
+   * {@link TissueModelExtractor#createTissueModelComp(int[])}.
+   *
+   * @param reactionIds identifiers of all reactions in the base model in their
+   *        original order.
+   * @param reactionLists for each tissue the (0-based) indices of the
+   *        reactions it contains.
+   * @return the matrix with one row per tissue.
+   * @throws IllegalArgumentException if an index does not refer to a reaction
+   *         of the base model.
+   */
+  public static ReactionPresenceMatrix fromIndices(List<String> reactionIds, Map<String, int[]> reactionLists) {
+    int words = wordCount(reactionIds.size());
+    long rows[][] = new long[reactionLists.size()][words];
+    int i = 0;
+    for (Map.Entry<String, int[]> entry : reactionLists.entrySet()) {
+      for (int r : entry.getValue()) {
+        if ((r < 0) || (r >= reactionIds.size())) {
+          throw new IllegalArgumentException(format("Tissue {0}: reaction index {1,number,#} out of range, expected 1 to {2,number,#} in the (1-based) list",
+            entry.getKey(), r + 1, reactionIds.size()));
+        }
+        rows[i][r >>> 6] |= 1L << r;
+      }
+      i++;
+    }
+    return new ReactionPresenceMatrix(new ArrayList<String>(reactionIds), new ArrayList<String>(reactionLists.keySet()), rows);
+  }
+
+  /**
+   * @param bits
+   * @return the number of 64-bit words required for the given number of bits.
+   */
+  private static int wordCount(int bits) {
+    return (bits + 63) >>> 6;
+  }
+
+  /**
+   * @param file
+   * @return the matrix stored in the given file.
+   * @throws IOException
+   */
+  public static ReactionPresenceMatrix read(File file) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+    try {
+      if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+        throw new IOException(format("{0} is not a reaction presence matrix", file.getAbsolutePath()));
+      }
+      int reactionCount = in.readInt(), rowCount = in.readInt();
+      List<String> reactionIds = new ArrayList<String>(reactionCount);
+      for (int i = 0; i < reactionCount; i++) {
+        reactionIds.add(in.readUTF());
+      }
+      List<String> rowNames = new ArrayList<String>(rowCount);
+      for (int i = 0; i < rowCount; i++) {
+        rowNames.add(in.readUTF());
+      }
+      long rows[][] = new long[rowCount][wordCount(reactionCount)];
+      for (long[] row : rows) {
+        for (int w = 0; w < row.length; w++) {
+          row[w] = in.readLong();
+        }
+      }
+      return new ReactionPresenceMatrix(reactionIds, rowNames, rows);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * @param file where to store this matrix.
+   * @throws IOException
+   */
+  public void write(File file) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(reactionIds.size());
+      out.writeInt(rows.length);
+      for (String id : reactionIds) {
+        out.writeUTF(id);
+      }
+      for (String name : rowNames) {
+        out.writeUTF(name);
+      }
+      for (long[] row : rows) {
+        for (long word : row) {
+          out.writeLong(word);
+        }
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * @return the number of rows.
+   */
+  public int getRowCount() {
+    return rows.length;
+  }
+
+  /**
+   * @param row
+   * @return the name of the given row.
+   */
+  public String getRowName(int row) {
+    return rowNames.get(row);
+  }
+
+  /**
+   * @param name
+   * @return the index of the row with the given name.
+   * @throws IllegalArgumentException if there is no such row.
+   */
+  public int indexOf(String name) {
+    int i = rowNames.indexOf(name);
+    if (i < 0) {
+      throw new IllegalArgumentException(format("No row with name ''{0}''", name));
+    }
+    return i;
+  }
+
+  /**
+   * @return the identifiers of all reactions, i.e., the column labels.
+   */
+  public List<String> getReactionIds() {
+    return reactionIds;
+  }
+
+  /**
+   * @param row
+   * @param reaction
+   * @return {@code true} if the given row contains the given reaction.
+   */
+  public boolean contains(int row, int reaction) {
+    return (rows[row][reaction >>> 6] & (1L << reaction)) != 0;
+  }
+
+  /**
+   * @param row
+   * @return the number of reactions in the given row.
+   */
+  public int count(int row) {
+    return count(rows[row]);
+  }
+
+  /**
+   * @param bits
+   * @return the number of set bits.
+   */
+  private static int count(long[] bits) {
+    int count = 0;
+    for (long word : bits) {
+      count += Long.bitCount(word);
+    }
+    return count;
+  }
+
+  /**
+   * @param a
+   * @param b
+   * @return the number of reactions contained in both rows.
+   */
+  public int intersection(int a, int b) {
+    long x[] = rows[a], y[] = rows[b];
+    int count = 0;
+    for (int w = 0; w < x.length; w++) {
+      count += Long.bitCount(x[w] & y[w]);
+    }
+    return count;
+  }
+
+  /**
+   * @param a
+   * @param b
+   * @return the number of reactions contained in at least one of the rows.
+   */
+  public int union(int a, int b) {
+    long x[] = rows[a], y[] = rows[b];
+    int count = 0;
+    for (int w = 0; w < x.length; w++) {
+      count += Long.bitCount(x[w] | y[w]);
+    }
+    return count;
+  }
+
+  /**
+   * @param a
+   * @param b
+   * @return the Jaccard index of the two rows (1 if both are empty).
+   */
+  public double jaccard(int a, int b) {
+    int union = union(a, b);
+    return union > 0 ? intersection(a, b) / (double) union : 1d;
+  }
+
+  /**
+   * Computes the Jaccard index of all pairs of rows in parallel.
+   *
+   * @return a symmetric matrix with the Jaccard index of each pair of rows.
+   */
+  public double[][] similarity() {
+    final double similarity[][] = new double[rows.length][rows.length];
+    IntStream.range(0, rows.length).parallel().forEach(i -> {
+      for (int j = i; j < rows.length; j++) {
+        similarity[i][j] = jaccard(i, j);
+        similarity[j][i] = similarity[i][j];
+      }
+    });
+    return similarity;
+  }
+
+  /**
+   * @return the bitmap of all reactions that are contained in every row.
+   */
+  public long[] core() {
+    long core[] = new long[wordCount(reactionIds.size())];
+    Arrays.fill(core, -1L);
+    for (long[] row : rows) {
+      for (int w = 0; w < core.length; w++) {
+        core[w] &= row[w];
+      }
+    }
+    return mask(core);
+  }
+
+  /**
+   * @param row
+   * @return the bitmap of all reactions that are contained in the given row
+   *         but in no other row.
+   */
+  public long[] unique(int row) {
+    long others[] = new long[wordCount(reactionIds.size())];
+    for (int i = 0; i < rows.length; i++) {
+      if (i != row) {
+        for (int w = 0; w < others.length; w++) {
+          others[w] |= rows[i][w];
+        }
+      }
+    }
+    long unique[] = rows[row].clone();
+    for (int w = 0; w < unique.length; w++) {
+      unique[w] &= ~others[w];
+    }
+    return unique;
+  }
+
+  /**
+   * Clears all bits beyond the number of reactions.
+   *
+   * @param bits
+   * @return the given array.
+   */
+  private long[] mask(long[] bits) {
+    int rest = reactionIds.size() & 63;
+    if ((rest > 0) && (bits.length > 0)) {
+      bits[bits.length - 1] &= (1L << rest) - 1;
+    }
+    return bits;
+  }
+
+  /**
+   * @param bits a bitmap over all reactions, such as returned by
+   *        {@link #core()} or {@link #unique(int)}.
+   * @return the identifiers of all reactions whose bit is set.
+   */
+  public List<String> getReactionIds(long[] bits) {
+    List<String> ids = new ArrayList<String>(count(bits));
+    for (int w = 0; w < bits.length; w++) {
+      long word = bits[w];
+      while (word != 0) {
+        ids.add(reactionIds.get((w << 6) + Long.numberOfTrailingZeros(word)));
+        word &= word - 1;
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * @param row
+   * @return the bitmap of the given row (not a copy).
+   */
+  public long[] getRow(int row) {
+    return rows[row];
+  }
+
+}
@@ -0,0 +1,46 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Inserts a layout generated by EscherConverter into a model and repairs all
+ * of its references in one go, i.e., it performs the work of
+ * {@link FixLayoutIDs} followed by {@link FixLayoutInternalIDs} on the same
+ * document in memory, so that the model is read and written only once (see
+ * {@link Pipeline}).
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class RepairLayout {
+
+  /**
+   * @param args
+   *        1) The result from a conversion Escher JSON to SBML
+   *        2) The model in which the layout is to be inserted.
+   *        3) The output file
+   *        Option {@code --validate}: check the consistency of the result and
+   *        print all errors.
+   *        Option {@code --output=tidy|compact} selects the output format (see
+   *        {@link SBMLOutput}).
+   * @throws IOException
+   * @throws XMLStreamException
+   */
+  public static void main(String[] args) throws XMLStreamException, IOException {
+    Arguments arguments = new Arguments(args);
+    Pipeline pipeline = new Pipeline()
+        .setOutputMode(SBMLOutput.getMode(arguments))
+        .add("fix-layout-ids", arguments.get(0))
+        .add("fix-layout-internal-ids", null);
+    if (arguments.isSet("validate")) {
+      pipeline.add("validate", null);
+    }
+    pipeline.run(new File(arguments.get(1)), new File(arguments.get(2)));
+  }
+
+}
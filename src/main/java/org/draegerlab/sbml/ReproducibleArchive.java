@@ -0,0 +1,133 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static java.text.MessageFormat.format;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Rewrites a ZIP file, such as a COMBINE archive, so that its bytes depend
+ * only on the content of its entries: entries are sorted by name, all get
+ * the same modification time, and comments and extra fields are dropped.
+ * Together with stable entry names and fixed meta data, identical inputs
+ * then lead to byte-identical archives.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class ReproducibleArchive {
+
+  /** The default time stamp for all entries: 2000-01-01T00:00:00Z */
+  public static final Date DEFAULT_DATE = new Date(946684800000L);
+
+  private static final int BUFFER = 1 << 16;
+
+  /** A {@link Logger} for this class */
+  private static final Logger logger = Logger.getLogger(ReproducibleArchive.class.getName());
+
+  /**
+   * @param args
+   *        1) The ZIP file to be rewritten in place
+   * @throws IOException
+   */
+  public static void main(String[] args) throws IOException {
+    normalize(new File(new Arguments(args).get(0)), DEFAULT_DATE);
+  }
+
+  /**
+   * Rewrites the given file in place.
+   *
+   * @param zip the file to be rewritten.
+   * @param date the modification time of all entries, interpreted in UTC, so
+   *        that the result does not depend on the time zone of the machine.
+   * @throws IOException also if the date cannot be stored in the time zone of
+   *         this machine (see {@link #toLocalTime(Date)}).
+   */
+  public static void normalize(File zip, Date date) throws IOException {
+    long time = toLocalTime(date);
+    File tmp = new File(zip.getParentFile(), zip.getName() + ".tmp");
+    boolean done = false;
+    ZipFile in = new ZipFile(zip);
+    try {
+      List<String> names = new ArrayList<String>();
+      Enumeration<? extends ZipEntry> entries = in.entries();
+      while (entries.hasMoreElements()) {
+        names.add(entries.nextElement().getName());
+      }
+      Collections.sort(names);
+      ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), BUFFER));
+      try {
+        byte buffer[] = new byte[BUFFER];
+        for (String name : names) {
+          ZipEntry entry = new ZipEntry(name);
+          entry.setTime(time);
+          out.putNextEntry(entry);
+          InputStream is = new BufferedInputStream(in.getInputStream(in.getEntry(name)), BUFFER);
+          try {
+            int count;
+            while ((count = is.read(buffer)) != -1) {
+              out.write(buffer, 0, count);
+            }
+          } finally {
+            is.close();
+          }
+          out.closeEntry();
+        }
+      } finally {
+        out.close();
+      }
+      in.close();
+      Files.move(tmp.toPath(), zip.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      done = true;
+    } finally {
+      in.close();
+      if (!done) {
+        Files.deleteIfExists(tmp.toPath());
+      }
+    }
+    logger.fine(format("Normalized {0}", zip.getAbsolutePath()));
+  }
+
+  /**
+   * ZIP entries store the local date and time fields, which
+   * {@link ZipEntry#setTime(long)} derives from an instant in the default
+   * time zone, including its daylight saving offset at that instant. This
+   * method determines the instant whose local fields equal the UTC fields of
+   * the given date, so that all time zones store the same fields.
+   *
+   * @param date
+   * @return the time to pass to {@link ZipEntry#setTime(long)}.
+   * @throws IOException if the UTC fields of the date do not exist as local
+   *         time, i.e., they fall into a daylight saving gap.
+   */
+  private static long toLocalTime(Date date) throws IOException {
+    LocalDateTime fields = LocalDateTime.ofInstant(date.toInstant(), ZoneOffset.UTC);
+    ZonedDateTime local = fields.atZone(ZoneId.systemDefault());
+    if (!local.toLocalDateTime().equals(fields)) {
+      throw new IOException(format("{0} does not exist in time zone {1}, choose another date", fields, ZoneId.systemDefault()));
+    }
+    return local.toInstant().toEpochMilli();
+  }
+
+}
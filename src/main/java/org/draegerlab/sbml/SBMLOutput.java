@@ -0,0 +1,123 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.sbml.jsbml.SBMLDocument;
+import org.sbml.jsbml.SBMLException;
+import org.sbml.jsbml.SBMLWriter;
+import org.sbml.jsbml.TidySBMLWriter;
+
+/**
+ * Writes SBML documents in one of the available output {@link Mode}s. All
+ * tools in this package use this class for writing, so that the mode can be
+ * selected with the option {@code --output=tidy|compact} (see
+ * {@link #getMode(Arguments)}). The mode is passed to each call, so that
+ * tools running in the same process can use different modes. Independent of
+ * the mode, files whose name ends with {@code .gz} are compressed while they
+ * are written.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class SBMLOutput {
+
+  /**
+   * The way in which documents are formatted.
+   */
+  public enum Mode {
+    /**
+     * Pretty-printed by {@link TidySBMLWriter} with an indentation of two
+     * blanks. Compressed files are written with the same indentation by the
+     * plain {@link SBMLWriter} instead.
+     */
+    TIDY,
+    /**
+     * Written by the plain {@link SBMLWriter} without any indentation.
+     */
+    COMPACT;
+  }
+
+  /** The name of the command-line option to select the mode */
+  public static final String OPTION = "output";
+
+  private static final String GZ_EXTENSION = ".gz";
+  private static final int BUFFER = 1 << 20;
+
+  /** The mode used by {@link #write(SBMLDocument, File)} */
+  public static final Mode DEFAULT_MODE = Mode.TIDY;
+
+  /**
+   * @param arguments the command-line arguments of a tool.
+   * @return the mode selected by the option {@code --output} or
+   *         {@link #DEFAULT_MODE} if it is not given.
+   */
+  public static Mode getMode(Arguments arguments) {
+    return Mode.valueOf(arguments.getOption(OPTION, DEFAULT_MODE.name()).toUpperCase());
+  }
+
+  /**
+   * Writes the document in the default mode.
+   *
+   * @param doc
+   * @param file
+   * @throws XMLStreamException
+   * @throws IOException
+   */
+  public static void write(SBMLDocument doc, File file) throws XMLStreamException, IOException {
+    write(doc, file, DEFAULT_MODE);
+  }
+
+  /**
+   * @param doc
+   * @param file
+   * @param mode
+   * @throws XMLStreamException
+   * @throws IOException
+   */
+  public static void write(SBMLDocument doc, File file, Mode mode) throws XMLStreamException, IOException {
+    boolean gzip = file.getName().endsWith(GZ_EXTENSION);
+    if ((mode == Mode.TIDY) && !gzip) {
+      TidySBMLWriter.write(doc, file, ' ', (short) 2);
+      return;
+    }
+    OutputStream os = new BufferedOutputStream(Channels.newOutputStream(FileChannel.open(file.toPath(),
+      StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)), BUFFER);
+    try {
+      if (gzip) {
+        os = new GZIPOutputStream(os, BUFFER);
+      }
+      write(doc, os, mode);
+    } finally {
+      os.close();
+    }
+  }
+
+  /**
+   * Writes the document to the stream.
+   *
+   * @param doc
+   * @param os
+   * @param mode
+   * @throws XMLStreamException
+   * @throws IOException
+   */
+  public static void write(SBMLDocument doc, OutputStream os, Mode mode) throws XMLStreamException, IOException {
+    try {
+      new SBMLWriter(' ', (short) (mode == Mode.TIDY ? 2 : 0)).write(doc, os);
+    } catch (SBMLException exc) {
+      throw new IOException(exc);
+    }
+  }
+
+}
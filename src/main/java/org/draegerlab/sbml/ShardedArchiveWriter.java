@@ -0,0 +1,180 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static java.text.MessageFormat.format;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Distributes the submodels created by a {@link TissueModelExtractor} over
+ * several COMBINE archives (volumes) named {@code <descriptor>-<k>.omex}. Each
+ * volume contains its own copy of the base model, so that it can be used on
+ * its own. As soon as a volume is full, it is packed and finalized by one of
+ * several worker threads while further submodels are created. Finally, an
+ * index file {@code <descriptor>-index.tsv} maps each tissue to its volume.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class ShardedArchiveWriter {
+
+  /** A {@link Logger} for this class */
+  private static final Logger logger = Logger.getLogger(ShardedArchiveWriter.class.getName());
+
+  private final TissueModelExtractor tme;
+  private final File folder;
+  private final String descriptor;
+  private final int shardSize;
+  private final ExecutorService executor;
+  private final List<Future<File>> volumes;
+  /** Index lines for all tissues added so far */
+  private final List<String> index;
+  /** The models of the volume that is not yet full */
+  private List<File> current;
+
+  /**
+   * @param tme creates the submodels and packs each volume (see
+   *        {@link TissueModelExtractor#packVolume(File, List)}).
+   * @param folder where to write the volumes and the index.
+   * @param descriptor the common prefix of all file names.
+   * @param shardSize the maximal number of submodels per volume.
+   * @param threads the number of volumes to be written concurrently.
+   */
+  public ShardedArchiveWriter(TissueModelExtractor tme, File folder, String descriptor, int shardSize, int threads) {
+    if (shardSize < 1) {
+      throw new IllegalArgumentException(format("Invalid shard size {0,number,integer}", shardSize));
+    }
+    this.tme = tme;
+    this.folder = folder;
+    this.descriptor = descriptor;
+    this.shardSize = shardSize;
+    executor = Executors.newFixedThreadPool(Math.max(1, threads));
+    volumes = new ArrayList<Future<File>>();
+    index = new ArrayList<String>();
+    current = new ArrayList<File>(shardSize);
+  }
+
+  /**
+   * @param k the number of the volume, starting at 1.
+   * @return the file of that volume.
+   */
+  private File getVolume(int k) {
+    return new File(folder, descriptor + '-' + k + TissueModelExtractor.OMEX_EXTENSION);
+  }
+
+  /**
+   * Adds a submodel to the current volume and schedules the volume for packing
+   * if it is full.
+   *
+   * @param name the name of the tissue.
+   * @param model the file that contains the submodel.
+   */
+  public void add(String name, File model) {
+    current.add(model);
+    index.add(name + '\t' + getVolume(volumes.size() + 1).getName() + '\t' + model.getName());
+    if (current.size() == shardSize) {
+      submit();
+    }
+  }
+
+  /**
+   * Schedules the current volume for packing and starts a new one.
+   */
+  private void submit() {
+    final File volume = getVolume(volumes.size() + 1);
+    final List<File> models = current;
+    current = new ArrayList<File>(shardSize);
+    volumes.add(executor.submit(new Callable<File>() {
+      @Override
+      public File call() throws Exception {
+        tme.packVolume(volume, models);
+        logger.info(format("Volume finalized: {0}", volume.getAbsolutePath()));
+        return volume;
+      }
+    }));
+  }
+
+  /**
+   * Packs the last volume, waits for all volumes to be finalized, and writes
+   * the index.
+   *
+   * @return all volumes in their order.
+   * @throws IOException if a volume could not be written. In this case, all
+   *         other volumes are canceled and deleted (see {@link #abort()}).
+   */
+  public List<File> finish() throws IOException {
+    if (!current.isEmpty() || volumes.isEmpty()) {
+      submit();
+    }
+    executor.shutdown();
+    List<File> files = new ArrayList<File>(volumes.size());
+    try {
+      for (Future<File> volume : volumes) {
+        files.add(volume.get());
+      }
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+      abort();
+      throw new IOException(exc);
+    } catch (ExecutionException exc) {
+      abort();
+      throw new IOException(exc.getCause());
+    }
+    File indexFile = new File(folder, descriptor + "-index.tsv");
+    Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(indexFile), StandardCharsets.UTF_8));
+    try {
+      writer.write("tissue\tvolume\tentry\n");
+      for (String line : index) {
+        writer.write(line);
+        writer.write('\n');
+      }
+    } finally {
+      writer.close();
+    }
+    logger.info(format("{0,number,integer} volumes written, index: {1}", files.size(), indexFile.getAbsolutePath()));
+    return files;
+  }
+
+  /**
+   * Cancels all volumes that are not yet finalized, waits until no worker
+   * writes any more, and deletes all volumes, so that no incomplete set of
+   * volumes is published. No index is written.
+   */
+  public void abort() {
+    executor.shutdownNow();
+    for (Future<File> volume : volumes) {
+      volume.cancel(true);
+    }
+    try {
+      if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+        logger.warning("Volumes still being written after one minute");
+      }
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+    }
+    for (int k = 1; k <= volumes.size(); k++) {
+      File volume = getVolume(k);
+      if (volume.exists() && !volume.delete()) {
+        logger.warning(format("Cannot delete {0}", volume.getAbsolutePath()));
+      }
+    }
+    current.clear();
+  }
+
+}
@@ -0,0 +1,29 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import java.io.IOException;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.sbml.jsbml.SBMLDocument;
+
+/**
+ * One processing step of a {@link Pipeline}, which operates on an SBML
+ * document in memory.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public interface Stage {
+
+  /**
+   * Processes the given document in place.
+   *
+   * @param doc
+   * @throws XMLStreamException
+   * @throws IOException
+   */
+  void apply(SBMLDocument doc) throws XMLStreamException, IOException;
+
+}
@@ -0,0 +1,409 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static java.text.MessageFormat.format;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.sbml.jsbml.Model;
+import org.sbml.jsbml.Parameter;
+import org.sbml.jsbml.Reaction;
+import org.sbml.jsbml.Species;
+import org.sbml.jsbml.SpeciesReference;
+import org.sbml.jsbml.ext.fbc.FBCConstants;
+import org.sbml.jsbml.ext.fbc.FBCModelPlugin;
+import org.sbml.jsbml.ext.fbc.FBCReactionPlugin;
+import org.sbml.jsbml.ext.fbc.FluxObjective;
+import org.sbml.jsbml.ext.fbc.Objective;
+
+/**
+ * The stoichiometric matrix of a model in compressed sparse column (CSC)
+ * form, together with flux bounds, objective coefficients, and a column mask
+ * for each tissue, so that solvers can set up flux balance problems without
+ * parsing any SBML. Rows are all species that are not boundary species;
+ * columns are all reactions in the order of the model.
+ * <p>
+ * The binary file is written in little-endian byte order, and every section
+ * starts at a multiple of eight bytes, so that it can be memory-mapped
+ * directly, e.g., with {@code numpy.memmap}:
+ * <table summary="File layout">
+ * <tr><td>0</td><td>int</td><td>magic number {@code 0x53544f49}</td></tr>
+ * <tr><td>4</td><td>int</td><td>format version</td></tr>
+ * <tr><td>8</td><td>int</td><td>number of rows (species) m</td></tr>
+ * <tr><td>12</td><td>int</td><td>number of columns (reactions) n</td></tr>
+ * <tr><td>16</td><td>int</td><td>number of tissues t</td></tr>
+ * <tr><td>20</td><td>int</td><td>number of 64-bit words per mask w</td></tr>
+ * <tr><td>24</td><td>long</td><td>number of non-zero entries nnz</td></tr>
+ * <tr><td>32</td><td>long[8]</td><td>offsets of the sections: column pointers
+ * (int[n + 1]), row indices (int[nnz]), values (double[nnz]), lower bounds,
+ * upper bounds, and objective coefficients (double[n] each), masks
+ * (long[t][w], bit j of a mask is set if the tissue contains reaction j), and
+ * the string table</td></tr>
+ * </table>
+ * The string table contains the identifiers of all species, all reactions,
+ * and the names of all tissues, in this order, each as an int with the number
+ * of bytes followed by the UTF-8 encoded string. Flux bounds without a value
+ * are infinite.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class StoichiometricMatrix {
+
+  /** Default file extension */
+  public static final String EXTENSION = ".stoich";
+
+  private static final int MAGIC = 0x53544f49;
+  private static final int VERSION = 1;
+  private static final int HEADER = 96;
+
+  private final List<String> speciesIds;
+  private final List<String> reactionIds;
+  private final List<String> tissueNames;
+  private final int colPtr[];
+  private final int rowIdx[];
+  private final double values[];
+  private final double lowerBounds[];
+  private final double upperBounds[];
+  private final double objective[];
+  private final long masks[][];
+
+  /**
+   * @param args
+   *        1) A matrix file
+   *        Prints the dimensions and the number of reactions per tissue.
+   * @throws IOException
+   */
+  public static void main(String[] args) throws IOException {
+    StoichiometricMatrix matrix = read(new File(new Arguments(args).get(0)));
+    System.out.printf("species\t%d\nreactions\t%d\nnon-zeros\t%d\n", matrix.speciesIds.size(),
+      matrix.reactionIds.size(), matrix.values.length);
+    for (int t = 0; t < matrix.masks.length; t++) {
+      int count = 0;
+      for (long word : matrix.masks[t]) {
+        count += Long.bitCount(word);
+      }
+      System.out.printf("%s\t%d\n", matrix.tissueNames.get(t), count);
+    }
+  }
+
+  /**
+   * @param speciesIds
+   * @param reactionIds
+   * @param tissueNames
+   * @param colPtr
+   * @param rowIdx
+   * @param values
+   * @param lowerBounds
+   * @param upperBounds
+   * @param objective
+   * @param masks
+   */
+  private StoichiometricMatrix(List<String> speciesIds, List<String> reactionIds, List<String> tissueNames,
+    int[] colPtr, int[] rowIdx, double[] values, double[] lowerBounds, double[] upperBounds, double[] objective,
+    long[][] masks) {
+    this.speciesIds = Collections.unmodifiableList(speciesIds);
+    this.reactionIds = Collections.unmodifiableList(reactionIds);
+    this.tissueNames = Collections.unmodifiableList(tissueNames);
+    this.colPtr = colPtr;
+    this.rowIdx = rowIdx;
+    this.values = values;
+    this.lowerBounds = lowerBounds;
+    this.upperBounds = upperBounds;
+    this.objective = objective;
+    this.masks = masks;
+  }
+
+  /**
+   * @param m a model with fbc version 2.
+   * @param reactionLists for each tissue its name and the (0-based) indices of
+   *        the reactions it contains.
+   * @return the matrix of the model with one mask per tissue.
+   * @throws IllegalArgumentException if an index does not refer to a reaction
+   *         of the model.
+   */
+  public static StoichiometricMatrix fromModel(Model m, Map<String, int[]> reactionLists) {
+    List<String> speciesIds = new ArrayList<String>();
+    Map<String, Integer> rows = new HashMap<String, Integer>();
+    for (Species s : m.getListOfSpecies()) {
+      if (!s.getBoundaryCondition()) {
+        rows.put(s.getId(), speciesIds.size());
+        speciesIds.add(s.getId());
+      }
+    }
+    int n = m.getReactionCount();
+    List<String> reactionIds = new ArrayList<String>(n);
+    Map<String, Integer> columns = new HashMap<String, Integer>();
+    int colPtr[] = new int[n + 1];
+    List<Integer> rowList = new ArrayList<Integer>();
+    List<Double> valueList = new ArrayList<Double>();
+    double lower[] = new double[n], upper[] = new double[n], objective[] = new double[n];
+    for (int j = 0; j < n; j++) {
+      Reaction r = m.getReaction(j);
+      reactionIds.add(r.getId());
+      columns.put(r.getId(), j);
+      // Species on both sides are summed up, rows are sorted within a column.
+      TreeMap<Integer, Double> column = new TreeMap<Integer, Double>();
+      addColumnEntries(r.getListOfReactants(), -1d, rows, column);
+      addColumnEntries(r.getListOfProducts(), 1d, rows, column);
+      for (Map.Entry<Integer, Double> entry : column.entrySet()) {
+        if (entry.getValue() != 0d) {
+          rowList.add(entry.getKey());
+          valueList.add(entry.getValue());
+        }
+      }
+      colPtr[j + 1] = rowList.size();
+      FBCReactionPlugin rplug = (FBCReactionPlugin) r.getExtension(FBCConstants.shortLabel);
+      lower[j] = Double.NEGATIVE_INFINITY;
+      upper[j] = Double.POSITIVE_INFINITY;
+      if (rplug != null) {
+        if (rplug.isSetLowerFluxBound()) {
+          lower[j] = getValue(m, rplug.getLowerFluxBound(), lower[j]);
+        }
+        if (rplug.isSetUpperFluxBound()) {
+          upper[j] = getValue(m, rplug.getUpperFluxBound(), upper[j]);
+        }
+      }
+    }
+    FBCModelPlugin fbc = (FBCModelPlugin) m.getExtension(FBCConstants.shortLabel);
+    if ((fbc != null) && (fbc.getActiveObjectiveInstance() != null)) {
+      Objective o = fbc.getActiveObjectiveInstance();
+      for (FluxObjective fo : o.getListOfFluxObjectives()) {
+        Integer j = columns.get(fo.getReaction());
+        if (j != null) {
+          objective[j] = fo.getCoefficient();
+        }
+      }
+    }
+    int rowIdx[] = new int[rowList.size()];
+    double values[] = new double[valueList.size()];
+    for (int k = 0; k < rowIdx.length; k++) {
+      rowIdx[k] = rowList.get(k);
+      values[k] = valueList.get(k);
+    }
+    long masks[][] = new long[reactionLists.size()][(n + 63) >>> 6];
+    int t = 0;
+    for (Map.Entry<String, int[]> entry : reactionLists.entrySet()) {
+      for (int j : entry.getValue()) {
+        if ((j < 0) || (j >= n)) {
+          throw new IllegalArgumentException(format("Tissue {0}: reaction index {1,number,#} out of range, expected 1 to {2,number,#} in the (1-based) list",
+            entry.getKey(), j + 1, n));
+        }
+        masks[t][j >>> 6] |= 1L << j;
+      }
+      t++;
+    }
+    return new StoichiometricMatrix(speciesIds, reactionIds, new ArrayList<String>(reactionLists.keySet()),
+      colPtr, rowIdx, values, lower, upper, objective, masks);
+  }
+
+  /**
+   * @param references
+   * @param sign -1 for reactants, 1 for products.
+   * @param rows index of all non-boundary species.
+   * @param column
+   */
+  private static void addColumnEntries(List<SpeciesReference> references, double sign, Map<String, Integer> rows,
+    Map<Integer, Double> column) {
+    for (SpeciesReference sr : references) {
+      Integer i = rows.get(sr.getSpecies());
+      if (i != null) {
+        double stoichiometry = sr.isSetStoichiometry() ? sr.getStoichiometry() : 1d;
+        Double value = column.get(i);
+        column.put(i, (value != null ? value : 0d) + sign * stoichiometry);
+      }
+    }
+  }
+
+  /**
+   * @param m
+   * @param id
+   * @param defaultValue
+   * @return the value of the parameter with the given identifier or the
+   *         default value if there is no such parameter or it has no value.
+   */
+  private static double getValue(Model m, String id, double defaultValue) {
+    Parameter p = m.getParameter(id);
+    return (p != null) && p.isSetValue() ? p.getValue() : defaultValue;
+  }
+
+  /**
+   * @param position
+   * @return the next multiple of eight.
+   */
+  private static long align(long position) {
+    return (position + 7) & ~7L;
+  }
+
+  /**
+   * @param file where to write this matrix.
+   * @throws IOException
+   */
+  public void write(File file) throws IOException {
+    int n = reactionIds.size();
+    int words = (n + 63) >>> 6;
+    long offsets[] = new long[8];
+    offsets[0] = HEADER;
+    offsets[1] = align(offsets[0] + 4L * colPtr.length);
+    offsets[2] = align(offsets[1] + 4L * rowIdx.length);
+    offsets[3] = offsets[2] + 8L * values.length;
+    offsets[4] = offsets[3] + 8L * n;
+    offsets[5] = offsets[4] + 8L * n;
+    offsets[6] = offsets[5] + 8L * n;
+    offsets[7] = offsets[6] + 8L * masks.length * words;
+    List<byte[]> strings = new ArrayList<byte[]>();
+    long size = offsets[7];
+    for (List<String> list : Arrays.asList(speciesIds, reactionIds, tissueNames)) {
+      for (String s : list) {
+        byte bytes[] = s.getBytes(StandardCharsets.UTF_8);
+        strings.add(bytes);
+        size += 4 + bytes.length;
+      }
+    }
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException(format("Matrix too large for a single file: {0,number,integer} bytes", size));
+    }
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(size);
+      MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      buffer.putInt(MAGIC).putInt(VERSION).putInt(speciesIds.size()).putInt(n).putInt(masks.length).putInt(words);
+      buffer.putLong(values.length);
+      for (long offset : offsets) {
+        buffer.putLong(offset);
+      }
+      buffer.position((int) offsets[0]);
+      buffer.asIntBuffer().put(colPtr);
+      buffer.position((int) offsets[1]);
+      buffer.asIntBuffer().put(rowIdx);
+      buffer.position((int) offsets[2]);
+      buffer.asDoubleBuffer().put(values);
+      buffer.position((int) offsets[3]);
+      buffer.asDoubleBuffer().put(lowerBounds);
+      buffer.position((int) offsets[4]);
+      buffer.asDoubleBuffer().put(upperBounds);
+      buffer.position((int) offsets[5]);
+      buffer.asDoubleBuffer().put(objective);
+      for (int t = 0; t < masks.length; t++) {
+        buffer.position((int) (offsets[6] + 8L * t * words));
+        buffer.asLongBuffer().put(masks[t]);
+      }
+      buffer.position((int) offsets[7]);
+      for (byte[] bytes : strings) {
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+      }
+      buffer.force();
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * @param file
+   * @return the matrix stored in the given file.
+   * @throws IOException
+   */
+  public static StoichiometricMatrix read(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      if ((buffer.getInt() != MAGIC) || (buffer.getInt() != VERSION)) {
+        throw new IOException(format("{0} is not a stoichiometric matrix", file.getAbsolutePath()));
+      }
+      int m = buffer.getInt(), n = buffer.getInt(), tissues = buffer.getInt(), words = buffer.getInt();
+      int nnz = (int) buffer.getLong();
+      long offsets[] = new long[8];
+      for (int i = 0; i < offsets.length; i++) {
+        offsets[i] = buffer.getLong();
+      }
+      int colPtr[] = new int[n + 1], rowIdx[] = new int[nnz];
+      double values[] = new double[nnz], lower[] = new double[n], upper[] = new double[n], objective[] = new double[n];
+      long masks[][] = new long[tissues][words];
+      buffer.position((int) offsets[0]);
+      buffer.asIntBuffer().get(colPtr);
+      buffer.position((int) offsets[1]);
+      buffer.asIntBuffer().get(rowIdx);
+      buffer.position((int) offsets[2]);
+      buffer.asDoubleBuffer().get(values);
+      buffer.position((int) offsets[3]);
+      buffer.asDoubleBuffer().get(lower);
+      buffer.position((int) offsets[4]);
+      buffer.asDoubleBuffer().get(upper);
+      buffer.position((int) offsets[5]);
+      buffer.asDoubleBuffer().get(objective);
+      for (int t = 0; t < tissues; t++) {
+        buffer.position((int) (offsets[6] + 8L * t * words));
+        buffer.asLongBuffer().get(masks[t]);
+      }
+      buffer.position((int) offsets[7]);
+      List<String> speciesIds = readStrings(buffer, m);
+      List<String> reactionIds = readStrings(buffer, n);
+      List<String> tissueNames = readStrings(buffer, tissues);
+      return new StoichiometricMatrix(speciesIds, reactionIds, tissueNames, colPtr, rowIdx, values, lower, upper,
+        objective, masks);
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * @param buffer
+   * @param count
+   * @return the next strings from the buffer.
+   */
+  private static List<String> readStrings(MappedByteBuffer buffer, int count) {
+    List<String> strings = new ArrayList<String>(count);
+    for (int i = 0; i < count; i++) {
+      byte bytes[] = new byte[buffer.getInt()];
+      buffer.get(bytes);
+      strings.add(new String(bytes, StandardCharsets.UTF_8));
+    }
+    return strings;
+  }
+
+  /**
+   * @return the identifiers of all species, i.e., the row labels.
+   */
+  public List<String> getSpeciesIds() {
+    return speciesIds;
+  }
+
+  /**
+   * @return the identifiers of all reactions, i.e., the column labels.
+   */
+  public List<String> getReactionIds() {
+    return reactionIds;
+  }
+
+  /**
+   * @return the names of all tissues.
+   */
+  public List<String> getTissueNames() {
+    return tissueNames;
+  }
+
+  /**
+   * @return the number of non-zero entries.
+   */
+  public int getNonZeroCount() {
+    return values.length;
+  }
+
+}
@@ -0,0 +1,205 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static java.text.MessageFormat.format;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.sbml.jsbml.SBMLDocument;
+import org.sbml.jsbml.SBMLError;
+
+/**
+ * Validates generated submodels on a separate, bounded thread pool while the
+ * caller continues with the next model, and collects all problems into one
+ * report per archive. If the pool and its queue are full, the submitting
+ * thread validates the model itself, so that the number of documents waiting
+ * for validation, and hence the memory footprint, stays bounded.
+ * <p>
+ * Documents must not be changed after they have been submitted. The pool
+ * consists of daemon threads, which never keep the JVM alive; callers should
+ * nevertheless call {@link #shutdownNow()} if they abort before the report
+ * has been written.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class SubmodelValidator {
+
+  /**
+   * What to do with the validation results.
+   */
+  public enum Mode {
+    /** No validation at all */
+    OFF,
+    /** Add the validation report to the archive */
+    ANNOTATE,
+    /** Like {@link #ANNOTATE}, but refuse to finalize an invalid archive */
+    FAIL;
+  }
+
+  /** The name of the command-line option to select the mode */
+  public static final String OPTION = "validate";
+  /** Name of the report file within the archive */
+  public static final String REPORT = "validation.tsv";
+
+  /** A {@link Logger} for this class */
+  private static final Logger logger = Logger.getLogger(SubmodelValidator.class.getName());
+
+  private final Mode mode;
+  private final ThreadPoolExecutor executor;
+  /**
+   * The names of all submitted models, possibly with duplicates; guarded by
+   * itself together with {@link #results}
+   */
+  private final List<String> names;
+  /** The pending results in the order of {@link #names} */
+  private final List<Future<List<String>>> results;
+
+  /**
+   * Creates a validator according to the options {@code --validate} (a flag
+   * or one of {@code off}, {@code annotate}, or {@code fail}; the flag
+   * alone means {@code annotate}) and {@code --validate-threads=n}.
+   *
+   * @param arguments the command-line arguments of a tool.
+   * @return the validator or {@code null} if validation is off.
+   */
+  public static SubmodelValidator configure(Arguments arguments) {
+    String value = arguments.getOption(OPTION, Mode.OFF.name());
+    Mode mode = value.equalsIgnoreCase(Boolean.TRUE.toString()) ? Mode.ANNOTATE : Mode.valueOf(value.toUpperCase());
+    if (mode == Mode.OFF) {
+      return null;
+    }
+    int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    return new SubmodelValidator(mode, arguments.getOption(OPTION + "-threads", threads));
+  }
+
+  /**
+   * @param mode must not be {@link Mode#OFF}.
+   * @param threads the number of validation threads.
+   */
+  public SubmodelValidator(Mode mode, int threads) {
+    if (mode == Mode.OFF) {
+      throw new IllegalArgumentException("A validator cannot be created in mode OFF");
+    }
+    this.mode = mode;
+    executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+      new ArrayBlockingQueue<Runnable>(2 * threads), runnable -> {
+        Thread thread = new Thread(runnable, "validator");
+        thread.setDaemon(true);
+        return thread;
+      }, new ThreadPoolExecutor.CallerRunsPolicy());
+    names = new ArrayList<String>();
+    results = new ArrayList<Future<List<String>>>();
+  }
+
+  /**
+   * @return the mode of this validator.
+   */
+  public Mode getMode() {
+    return mode;
+  }
+
+  /**
+   * Schedules the validation of the given document. If the pool is busy, the
+   * document is validated by the calling thread, which does not block other
+   * threads from submitting.
+   *
+   * @param name the name of the model in the report.
+   * @param doc
+   */
+  public void submit(final String name, final SBMLDocument doc) {
+    Future<List<String>> result = executor.submit(new Callable<List<String>>() {
+      @Override
+      public List<String> call() {
+        List<String> problems = new ArrayList<String>();
+        for (SBMLError e : Validate.check(doc)) {
+          problems.add(format("{0}\t{1,number,#}\t{2,number,#}\t{3,number,#}\t{4}", e.getSeverity(), e.getCode(),
+            e.getLine(), e.getColumn(), e.getMessage().replaceAll("\\s+", " ").trim()));
+        }
+        return problems;
+      }
+    });
+    synchronized (names) {
+      names.add(name);
+      results.add(result);
+    }
+  }
+
+  /**
+   * Cancels all pending validations and stops the thread pool without writing
+   * a report. It is safe to call this method after
+   * {@link #writeReport(File)}.
+   */
+  public void shutdownNow() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Waits for all pending validations, shuts the thread pool down, and writes
+   * all problems to the given file, one per line.
+   *
+   * @param report where to write the report.
+   * @return the total number of problems found.
+   * @throws IOException if writing fails or a validation could not be
+   *         completed.
+   */
+  public int writeReport(File report) throws IOException {
+    executor.shutdown();
+    List<String> names;
+    List<Future<List<String>>> results;
+    synchronized (this.names) {
+      names = new ArrayList<String>(this.names);
+      results = new ArrayList<Future<List<String>>>(this.results);
+    }
+    int count = 0;
+    Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(report), StandardCharsets.UTF_8));
+    try {
+      writer.write("model\tseverity\tcode\tline\tcolumn\tmessage\n");
+      for (int i = 0; i < results.size(); i++) {
+        String name = names.get(i);
+        List<String> problems;
+        try {
+          problems = results.get(i).get();
+        } catch (InterruptedException exc) {
+          Thread.currentThread().interrupt();
+          executor.shutdownNow();
+          throw new IOException(exc);
+        } catch (ExecutionException exc) {
+          executor.shutdownNow();
+          throw new IOException(format("Validation of {0} failed", name), exc.getCause());
+        }
+        for (String problem : problems) {
+          writer.write(name);
+          writer.write('\t');
+          writer.write(problem);
+          writer.write('\n');
+        }
+        if (!problems.isEmpty()) {
+          logger.warning(format("{0}: {1,number,integer} problems", name, problems.size()));
+        }
+        count += problems.size();
+      }
+    } finally {
+      writer.close();
+    }
+    logger.info(format("Validated {0,number,integer} models, {1,number,integer} problems: {2}", results.size(), count, report.getAbsolutePath()));
+    return count;
+  }
+
+}
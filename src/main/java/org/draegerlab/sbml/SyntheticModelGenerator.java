@@ -0,0 +1,368 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static java.text.MessageFormat.format;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.sbml.jsbml.Compartment;
+import org.sbml.jsbml.Model;
+import org.sbml.jsbml.Parameter;
+import org.sbml.jsbml.Reaction;
+import org.sbml.jsbml.SBMLDocument;
+import org.sbml.jsbml.Species;
+import org.sbml.jsbml.SpeciesReference;
+import org.sbml.jsbml.ext.fbc.And;
+import org.sbml.jsbml.ext.fbc.Association;
+import org.sbml.jsbml.ext.fbc.FBCConstants;
+import org.sbml.jsbml.ext.fbc.FBCModelPlugin;
+import org.sbml.jsbml.ext.fbc.FBCReactionPlugin;
+import org.sbml.jsbml.ext.fbc.FluxObjective;
+import org.sbml.jsbml.ext.fbc.GeneProduct;
+import org.sbml.jsbml.ext.fbc.GeneProductAssociation;
+import org.sbml.jsbml.ext.fbc.GeneProductRef;
+import org.sbml.jsbml.ext.fbc.LogicalOperator;
+import org.sbml.jsbml.ext.fbc.Objective;
+import org.sbml.jsbml.ext.fbc.Or;
+import org.sbml.jsbml.ext.layout.Layout;
+import org.sbml.jsbml.ext.layout.LayoutConstants;
+import org.sbml.jsbml.ext.layout.LayoutModelPlugin;
+import org.sbml.jsbml.ext.layout.ReactionGlyph;
+import org.sbml.jsbml.ext.layout.SpeciesGlyph;
+import org.sbml.jsbml.ext.layout.SpeciesReferenceGlyph;
+import org.sbml.jsbml.ext.layout.SpeciesReferenceRole;
+import org.sbml.jsbml.ext.layout.TextGlyph;
+
+/**
+ * Generates random, but reproducible, genome-scale models for benchmarks and
+ * scale tests that do not depend on confidential data. For a given seed, the
+ * generator produces:
+ * <ul>
+ * <li>an SBML Level 3 Version 1 model with fbc version 2 (strict), including
+ * flux bounds, gene products, gene-protein-reaction rules of configurable
+ * depth, and an objective,
+ * <li>a ZIP archive with one CSV file of sorted, 1-based reaction indices per
+ * tissue, as expected by {@link TissueModelExtractor#buildSubModels(java.util.zip.ZipFile)},
+ * <li>optionally, a layout document in the form produced by EscherConverter,
+ * i.e., with identifiers without the prefixes {@code M_} and {@code R_}, as
+ * expected by {@link FixLayoutIDs}.
+ * </ul>
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class SyntheticModelGenerator {
+
+  private static final String FBC_NAMESPACE = FBCConstants.namespaceURI_L3V1V2;
+  private static final String LOWER_BOUND = "cobra_default_lb";
+  private static final String UPPER_BOUND = "cobra_default_ub";
+  private static final String ZERO_BOUND = "cobra_0_bound";
+  private static final String BIOMASS = "R_BIOMASS";
+  private static final String CSV_EXTENSION = ".csv";
+  private static final String SBML_EXTENSION = ".xml";
+
+  /** A {@link Logger} for this class */
+  private static final Logger logger = Logger.getLogger(SyntheticModelGenerator.class.getName());
+
+  private static final int LEVEL = 3;
+  private static final int VERSION = 1;
+
+  private final int reactionCount;
+  private final int speciesCount;
+  private final int geneCount;
+  private final int gprDepth;
+  private final long seed;
+
+  /**
+   * @param args
+   *        1) Output: the directory where to create the files
+   *        2) The number of reactions
+   *        Options: {@code --species=n} (default: 80 % of the reactions),
+   *        {@code --genes=n} (default: 70 % of the reactions),
+   *        {@code --gpr-depth=n} maximal nesting of gene rules (default: 2),
+   *        {@code --tissues=n} number of reaction lists (default: 10),
+   *        {@code --seed=n} (default: 42), {@code --layout} also creates a
+   *        layout document, {@code --output=tidy|compact} (see
+   *        {@link SBMLOutput}).
+   * @throws XMLStreamException
+   * @throws IOException
+   */
+  public static void main(String[] args) throws XMLStreamException, IOException {
+    Arguments arguments = new Arguments(args);
+    SBMLOutput.Mode mode = SBMLOutput.getMode(arguments);
+    File outDir = new File(arguments.get(0));
+    if (!outDir.exists()) {
+      outDir.mkdirs();
+    }
+    int reactions = Integer.parseInt(arguments.get(1));
+    SyntheticModelGenerator generator = new SyntheticModelGenerator(reactions,
+      arguments.getOption("species", Math.max(2, reactions * 4 / 5)),
+      arguments.getOption("genes", Math.max(1, reactions * 7 / 10)),
+      arguments.getOption("gpr-depth", 2),
+      arguments.getOption("seed", 42));
+    String name = "synthetic_" + reactions;
+    SBMLDocument doc = generator.createModel(name);
+    File modelFile = new File(outDir, name + SBML_EXTENSION);
+    SBMLOutput.write(doc, modelFile, mode);
+    logger.info(format("Model written: {0}", modelFile.getAbsolutePath()));
+    File zipFile = new File(outDir, name + "_reactions.zip");
+    generator.writeReactionLists(zipFile, arguments.getOption("tissues", 10));
+    logger.info(format("Reaction lists written: {0}", zipFile.getAbsolutePath()));
+    if (arguments.isSet("layout")) {
+      File layoutFile = new File(outDir, name + "_layout" + SBML_EXTENSION);
+      SBMLOutput.write(generator.createLayout(doc.getModel()), layoutFile, mode);
+      logger.info(format("Layout written: {0}", layoutFile.getAbsolutePath()));
+    }
+  }
+
+  /**
+   * @param reactionCount the number of reactions (including one biomass
+   *        reaction).
+   * @param speciesCount the number of species.
+   * @param geneCount the number of gene products.
+   * @param gprDepth the maximal nesting depth of logical operators in gene
+   *        rules (0 means that each rule refers to a single gene).
+   * @param seed for the random number generator.
+   * @throws IllegalArgumentException if there is not at least one reaction
+   *         and one species, or if a count or the depth is negative.
+   */
+  public SyntheticModelGenerator(int reactionCount, int speciesCount, int geneCount, int gprDepth, long seed) {
+    if (reactionCount < 1) {
+      throw new IllegalArgumentException(format("Invalid number of reactions {0,number,integer}", reactionCount));
+    }
+    if (speciesCount < 1) {
+      throw new IllegalArgumentException(format("Invalid number of species {0,number,integer}", speciesCount));
+    }
+    if (geneCount < 0) {
+      throw new IllegalArgumentException(format("Invalid number of genes {0,number,integer}", geneCount));
+    }
+    if (gprDepth < 0) {
+      throw new IllegalArgumentException(format("Invalid depth of gene rules {0,number,integer}", gprDepth));
+    }
+    this.reactionCount = reactionCount;
+    this.speciesCount = speciesCount;
+    this.geneCount = geneCount;
+    this.gprDepth = gprDepth;
+    this.seed = seed;
+  }
+
+  /**
+   * @param id the identifier of the model.
+   * @return a new random model.
+   */
+  public SBMLDocument createModel(String id) {
+    Random random = new Random(seed);
+    SBMLDocument doc = new SBMLDocument(LEVEL, VERSION);
+    Model m = doc.createModel(id);
+    m.setName(id.replace('_', ' '));
+    FBCModelPlugin fbc = (FBCModelPlugin) m.getPlugin(FBC_NAMESPACE);
+    fbc.setStrict(true);
+
+    String compartments[] = {"c", "e"};
+    for (String c : compartments) {
+      Compartment compartment = m.createCompartment(c);
+      compartment.setConstant(true);
+      compartment.setSize(1d);
+      compartment.setSpatialDimensions(3d);
+    }
+    for (int i = 0; i < speciesCount; i++) {
+      // About one tenth of all metabolites is extracellular.
+      String c = (i % 10) == 9 ? "e" : "c";
+      Species s = m.createSpecies("M_m" + i + '_' + c, m.getCompartment(c));
+      s.setName("metabolite " + i);
+      s.setHasOnlySubstanceUnits(false);
+      s.setBoundaryCondition(false);
+      s.setConstant(false);
+    }
+    createBound(m, LOWER_BOUND, -1000d);
+    createBound(m, UPPER_BOUND, 1000d);
+    createBound(m, ZERO_BOUND, 0d);
+    for (int i = 0; i < geneCount; i++) {
+      GeneProduct gene = fbc.createGeneProduct("G_g" + i);
+      gene.setLabel("g" + i);
+    }
+
+    // A stride coprime to the number of species spreads reactions over the
+    // whole network without ever picking the same species twice.
+    int stride = 7919;
+    while (BigInteger.valueOf(stride).gcd(BigInteger.valueOf(speciesCount)).intValue() != 1) {
+      stride += 2;
+    }
+    for (int i = 0; i < reactionCount; i++) {
+      boolean biomass = i == reactionCount - 1;
+      Reaction r = m.createReaction(biomass ? BIOMASS : "R_r" + i);
+      r.setFast(false);
+      r.setReversible(!biomass && random.nextBoolean());
+      int reactants = Math.min(speciesCount, biomass ? 20 : 1 + random.nextInt(3));
+      int products = Math.min(speciesCount - reactants, biomass ? 0 : 1 + random.nextInt(3));
+      // Reactants and products are distinct species of this reaction.
+      int offset = random.nextInt(speciesCount);
+      for (int j = 0; j < reactants + products; j++) {
+        Species s = m.getSpecies((int) ((offset + (long) j * stride) % speciesCount));
+        SpeciesReference sr = j < reactants ? r.createReactant(s) : r.createProduct(s);
+        sr.setStoichiometry(1 + random.nextInt(2));
+        sr.setConstant(true);
+      }
+      FBCReactionPlugin rplug = (FBCReactionPlugin) r.getPlugin(FBC_NAMESPACE);
+      rplug.setLowerFluxBound(r.getReversible() ? LOWER_BOUND : ZERO_BOUND);
+      rplug.setUpperFluxBound(UPPER_BOUND);
+      if (!biomass && (geneCount > 0) && (random.nextInt(10) < 8)) {
+        GeneProductAssociation gpa = new GeneProductAssociation(LEVEL, VERSION);
+        gpa.setAssociation(createAssociation(random, gprDepth));
+        rplug.setGeneProductAssociation(gpa);
+      }
+    }
+
+    Objective objective = fbc.createObjective("obj");
+    objective.setType(Objective.Type.MAXIMIZE);
+    FluxObjective fluxObjective = objective.createFluxObjective();
+    fluxObjective.setReaction(BIOMASS);
+    fluxObjective.setCoefficient(1d);
+    fbc.setActiveObjective(objective.getId());
+    return doc;
+  }
+
+  /**
+   * @param m
+   * @param id
+   * @param value
+   */
+  private static void createBound(Model m, String id, double value) {
+    Parameter p = m.createParameter(id);
+    p.setValue(value);
+    p.setConstant(true);
+  }
+
+  /**
+   * @param random
+   * @param depth the remaining nesting depth.
+   * @return a random gene rule.
+   */
+  private Association createAssociation(Random random, int depth) {
+    if ((depth <= 0) || (random.nextInt(3) == 0)) {
+      GeneProductRef ref = new GeneProductRef(LEVEL, VERSION);
+      ref.setGeneProduct("G_g" + random.nextInt(geneCount));
+      return ref;
+    }
+    LogicalOperator operator = random.nextBoolean() ? new And(LEVEL, VERSION) : new Or(LEVEL, VERSION);
+    for (int i = 2 + random.nextInt(2); i > 0; i--) {
+      operator.addAssociation(createAssociation(random, depth - 1));
+    }
+    return operator;
+  }
+
+  /**
+   * Writes a ZIP archive with one CSV file per tissue, each with the sorted,
+   * 1-based indices of the reactions to keep (between 50 and 90 % of all
+   * reactions, always including the biomass reaction).
+   *
+   * @param zipFile the archive to be created.
+   * @param tissues the number of CSV files.
+   * @throws IOException
+   */
+  public void writeReactionLists(File zipFile, int tissues) throws IOException {
+    Random random = new Random(seed + 1);
+    ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zipFile), 1 << 16));
+    try {
+      for (int t = 0; t < tissues; t++) {
+        double fraction = 0.5d + 0.4d * random.nextDouble();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < reactionCount; i++) {
+          if ((i == reactionCount - 1) || (random.nextDouble() < fraction)) {
+            sb.append(i + 1).append('\n');
+          }
+        }
+        zip.putNextEntry(new ZipEntry("tissue_" + t + CSV_EXTENSION));
+        zip.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+      }
+    } finally {
+      zip.close();
+    }
+  }
+
+  /**
+   * Creates a document as it would result from converting an Escher map of
+   * the given model to SBML: all identifiers lack their prefixes, and all
+   * species references have identifiers of the form
+   * {@code <reaction>_reactant_<n>} or {@code <reaction>_product_<n>}.
+   *
+   * @param m a model created by {@link #createModel(String)}.
+   * @return a document with a layout of the model.
+   */
+  public SBMLDocument createLayout(Model m) {
+    SBMLDocument doc = new SBMLDocument(LEVEL, VERSION);
+    Model lm = doc.createModel(m.getId() + "_layout");
+    for (Compartment c : m.getListOfCompartments()) {
+      Compartment compartment = lm.createCompartment(c.getId());
+      compartment.setConstant(true);
+    }
+    LayoutModelPlugin layoutPlug = (LayoutModelPlugin) lm.getPlugin(LayoutConstants.shortLabel);
+    Layout layout = layoutPlug.createLayout("layout");
+    int columns = (int) Math.ceil(Math.sqrt(m.getSpeciesCount()));
+    layout.createDimensions(columns * 100d, columns * 100d, 0d);
+    Map<String, String> glyphBySpecies = new HashMap<String, String>();
+    for (int i = 0; i < m.getSpeciesCount(); i++) {
+      Species s = m.getSpecies(i);
+      Species copy = lm.createSpecies(stripPrefix(s.getId()), lm.getCompartment(s.getCompartment()));
+      copy.setHasOnlySubstanceUnits(false);
+      copy.setBoundaryCondition(false);
+      copy.setConstant(false);
+      SpeciesGlyph sg = layout.createSpeciesGlyph("SG_" + i, copy.getId());
+      glyphBySpecies.put(s.getId(), sg.getId());
+      sg.createBoundingBox(40d, 20d, 0d, (i % columns) * 100d, (i / columns) * 100d, 0d);
+      TextGlyph tg = layout.createTextGlyph("TG_" + i);
+      tg.setOriginOfText(copy.getId());
+      tg.setGraphicalObject(sg.getId());
+      tg.createBoundingBox(40d, 10d, 0d, (i % columns) * 100d, (i / columns) * 100d + 25d, 0d);
+    }
+    for (int i = 0; i < m.getReactionCount(); i++) {
+      Reaction r = m.getReaction(i);
+      Reaction copy = lm.createReaction(stripPrefix(r.getId()));
+      copy.setFast(false);
+      copy.setReversible(r.getReversible());
+      ReactionGlyph rg = layout.createReactionGlyph("RG_" + i, copy.getId());
+      rg.createBoundingBox(10d, 10d, 0d, (i % columns) * 100d + 50d, (i / columns) * 100d + 50d, 0d);
+      List<SpeciesReference> participants = new ArrayList<SpeciesReference>(r.getListOfReactants());
+      participants.addAll(r.getListOfProducts());
+      for (int j = 0; j < participants.size(); j++) {
+        boolean reactant = j < r.getReactantCount();
+        int n = reactant ? j : j - r.getReactantCount();
+        String species = stripPrefix(participants.get(j).getSpecies());
+        SpeciesReference sr = reactant ? copy.createReactant(lm.getSpecies(species)) : copy.createProduct(lm.getSpecies(species));
+        sr.setId(copy.getId() + (reactant ? "_reactant_" : "_product_") + n);
+        sr.setConstant(true);
+        SpeciesReferenceGlyph srg = rg.createSpeciesReferenceGlyph("SRG_" + i + '_' + j);
+        srg.setSpeciesGlyph(glyphBySpecies.get(participants.get(j).getSpecies()));
+        srg.setSpeciesReference(sr.getId());
+        srg.setRole(reactant ? SpeciesReferenceRole.SUBSTRATE : SpeciesReferenceRole.PRODUCT);
+      }
+    }
+    return doc;
+  }
+
+  /**
+   * @param id
+   * @return the identifier without its leading {@code M_} or {@code R_}.
+   */
+  private static String stripPrefix(String id) {
+    return id.startsWith("M_") || id.startsWith("R_") ? id.substring(2) : id;
+  }
+
+}
@@ -0,0 +1,353 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static java.text.MessageFormat.format;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.sbml.jsbml.Model;
+import org.sbml.jsbml.Reaction;
+import org.sbml.jsbml.SBMLDocument;
+import org.sbml.jsbml.SBMLReader;
+import org.sbml.jsbml.ext.comp.CompConstants;
+import org.sbml.jsbml.ext.comp.CompModelPlugin;
+import org.sbml.jsbml.ext.comp.CompSBMLDocumentPlugin;
+import org.sbml.jsbml.ext.comp.Deletion;
+import org.sbml.jsbml.ext.comp.ExternalModelDefinition;
+import org.sbml.jsbml.ext.comp.Submodel;
+
+/**
+ * Provides flat tissue models from an archive created by
+ * {@link TissueModelExtractor#packArchive(List)} without unpacking it. Each
+ * requested entry is read directly from the ZIP file, its
+ * {@link ExternalModelDefinition} is resolved against the base model within
+ * the same archive, and all reactions listed as {@link Deletion}s are removed.
+ * Tissues are known by the name of the model in their entry, which
+ * {@link TissueModelExtractor#buildSubModels(Map)} sets to the tissue name;
+ * all other entries by their file name without extension. Every base model
+ * is parsed only once and verified against the checksum in its
+ * {@link ExternalModelDefinition}. The most recently requested flat models
+ * are kept in a cache that is bounded by the number of models, not by their
+ * size in memory, so the capacity must be chosen with the size of one flat
+ * model in mind.
+ * <p>
+ * One reader can be shared between threads. Only the access to the caches
+ * is synchronized; different tissues are flattened in parallel, and if the
+ * same tissue is requested concurrently, only the first result is kept. The
+ * returned documents are shared with the cache and must be cloned before
+ * they are modified.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class TissueArchiveReader implements Closeable {
+
+  private static final String SBML_EXTENSION = ".sbml";
+
+  /** A {@link Logger} for this class */
+  private static final Logger logger = Logger.getLogger(TissueArchiveReader.class.getName());
+
+  private final ZipFile zipFile;
+  /** All SBML entries, by entry name and by tissue name */
+  private final Map<String, ZipEntry> entries;
+  /** The tissue names in the order of the archive */
+  private final List<String> names;
+  /** Parsed base models by entry name */
+  private final Map<String, SBMLDocument> baseModels;
+  /** The flat models that have been requested most recently */
+  private final Map<String, SBMLDocument> cache;
+
+  /**
+   * @param args
+   *        1) Input: the archive
+   *        2) Optional: the name of a tissue (or entry) in the archive; if
+   *        omitted, all names are listed.
+   *        3) Output: the file where to write the flat model of that tissue.
+   *        Option {@code --output=tidy|compact} (see {@link SBMLOutput}).
+   * @throws IOException
+   * @throws XMLStreamException
+   */
+  public static void main(String[] args) throws IOException, XMLStreamException {
+    Arguments arguments = new Arguments(args);
+    TissueArchiveReader reader = new TissueArchiveReader(new File(arguments.get(0)), 1);
+    try {
+      if (arguments.size() < 2) {
+        for (String name : reader.getNames()) {
+          System.out.println(name);
+        }
+      } else {
+        File out = new File(arguments.get(2));
+        SBMLOutput.write(reader.getModel(arguments.get(1)), out, SBMLOutput.getMode(arguments));
+        logger.info(format("File written: {0}", out.getAbsolutePath()));
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * @param archive a COMBINE archive created by {@link TissueModelExtractor}.
+   * @param capacity the maximal number of flat models to be cached,
+   *        regardless of their size.
+   * @throws IOException
+   */
+  public TissueArchiveReader(File archive, final int capacity) throws IOException {
+    zipFile = new ZipFile(archive);
+    entries = new HashMap<String, ZipEntry>();
+    names = new ArrayList<String>();
+    Enumeration<? extends ZipEntry> e = zipFile.entries();
+    while (e.hasMoreElements()) {
+      ZipEntry entry = e.nextElement();
+      String entryName = entry.getName();
+      if (entry.isDirectory() || !entryName.endsWith(SBML_EXTENSION)) {
+        continue;
+      }
+      entries.put(entryName, entry);
+      String name = readTissueName(entry);
+      if (name == null) {
+        name = entryName.substring(entryName.lastIndexOf('/') + 1, entryName.length() - SBML_EXTENSION.length());
+      }
+      if (entries.containsKey(name)) {
+        logger.warning(format("Ambiguous name {0}, use the entry name {1} instead", name, entryName));
+      } else {
+        entries.put(name, entry);
+        names.add(name);
+      }
+    }
+    baseModels = new HashMap<String, SBMLDocument>();
+    cache = new LinkedHashMap<String, SBMLDocument>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, SBMLDocument> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /**
+   * Reads the given entry only up to its model element.
+   *
+   * @param entry
+   * @return the name of the model if the entry refers to an external model,
+   *         otherwise {@code null}.
+   * @throws IOException
+   */
+  private String readTissueName(ZipEntry entry) throws IOException {
+    InputStream is = zipFile.getInputStream(entry);
+    try {
+      XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(is);
+      try {
+        boolean external = false;
+        while (reader.hasNext()) {
+          if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+            String localName = reader.getLocalName();
+            if (localName.equals("externalModelDefinition")) {
+              external = true;
+            } else if (localName.equals("model")) {
+              String name = reader.getAttributeValue(null, "name");
+              return external && (name != null) && !name.isEmpty() ? name : null;
+            }
+          }
+        }
+        return null;
+      } finally {
+        reader.close();
+      }
+    } catch (XMLStreamException exc) {
+      throw new IOException(format("Cannot read {0} in {1}", entry.getName(), zipFile.getName()), exc);
+    } finally {
+      is.close();
+    }
+  }
+
+  /**
+   * @return the names of all tissues and of all other SBML entries in this
+   *         archive, including the base model.
+   */
+  public List<String> getNames() {
+    return Collections.unmodifiableList(names);
+  }
+
+  /**
+   * @param name the name of a tissue (see {@link #getNames()}) or the name of
+   *        an entry within the archive.
+   * @return the flat model of that entry. If the entry does not refer to an
+   *         external model, it is returned as it is.
+   * @throws IOException if there is no such entry, it cannot be read, or its
+   *         base model does not match the expected checksum.
+   * @throws XMLStreamException
+   */
+  public SBMLDocument getModel(String name) throws IOException, XMLStreamException {
+    synchronized (cache) {
+      SBMLDocument doc = cache.get(name);
+      if (doc != null) {
+        return doc;
+      }
+    }
+    ZipEntry entry = entries.get(name);
+    if (entry == null) {
+      throw new IOException(format("No entry {0} in {1}", name, zipFile.getName()));
+    }
+    SBMLDocument doc = flatten(entry, read(entry, null));
+    synchronized (cache) {
+      SBMLDocument other = cache.get(name);
+      if (other != null) {
+        // another thread has been faster
+        return other;
+      }
+      cache.put(name, doc);
+    }
+    return doc;
+  }
+
+  /**
+   * @param entry
+   * @param compDoc the content of the entry.
+   * @return a new flat document or the given one if it does not refer to an
+   *         external model.
+   * @throws IOException
+   * @throws XMLStreamException
+   */
+  private SBMLDocument flatten(ZipEntry entry, SBMLDocument compDoc) throws IOException, XMLStreamException {
+    CompSBMLDocumentPlugin comp = (CompSBMLDocumentPlugin) compDoc.getExtension(CompConstants.shortLabel);
+    if ((comp == null) || (comp.getExternalModelDefinitionCount() == 0) || !compDoc.isSetModel()) {
+      return compDoc;
+    }
+    ExternalModelDefinition emd = comp.getExternalModelDefinition(0);
+    Model base = getBaseModel(entry, emd).getModel();
+    CompModelPlugin compModel = (CompModelPlugin) compDoc.getModel().getExtension(CompConstants.shortLabel);
+    Set<String> deleted = new HashSet<String>();
+    if (compModel != null) {
+      for (Submodel submodel : compModel.getListOfSubmodels()) {
+        for (Deletion deletion : submodel.getListOfDeletions()) {
+          if (deletion.isSetIdRef()) {
+            deleted.add(deletion.getIdRef());
+          }
+        }
+      }
+    }
+    List<String> rIds = new ArrayList<String>(base.getReactionCount());
+    for (Reaction r : base.getListOfReactions()) {
+      if (!deleted.contains(r.getId())) {
+        rIds.add(r.getId());
+      }
+    }
+    SBMLDocument flat = TissueModelExtractor.createTissueModel(base, rIds.toArray(new String[0]));
+    if (compDoc.getModel().isSetName()) {
+      flat.getModel().setName(compDoc.getModel().getName());
+    }
+    logger.fine(format("Flattened {0}: {1,number,integer} of {2,number,integer} reactions", entry.getName(), rIds.size(), base.getReactionCount()));
+    return flat;
+  }
+
+  /**
+   * @param entry the entry that refers to the base model.
+   * @param emd
+   * @return the (cached) base model, which must not be changed.
+   * @throws IOException
+   * @throws XMLStreamException
+   */
+  private SBMLDocument getBaseModel(ZipEntry entry, ExternalModelDefinition emd) throws IOException, XMLStreamException {
+    String source = emd.getSource();
+    while (source.startsWith("./") || source.startsWith("/")) {
+      source = source.substring(source.indexOf('/') + 1);
+    }
+    String entryName = entry.getName();
+    String path = entryName.substring(0, entryName.lastIndexOf('/') + 1) + source;
+    // held while parsing, so that each base model is parsed only once
+    synchronized (baseModels) {
+      SBMLDocument base = baseModels.get(path);
+      if (base == null) {
+        ZipEntry baseEntry = zipFile.getEntry(path);
+        if (baseEntry == null) {
+          throw new IOException(format("The base model {0} of {1} is not contained in {2}", source, entryName, zipFile.getName()));
+        }
+        base = read(baseEntry, emd.isSetMd5() ? emd.getMd5() : null);
+        baseModels.put(path, base);
+      }
+      return base;
+    }
+  }
+
+  /**
+   * @param entry
+   * @param md5 the expected checksum of the entry or {@code null}.
+   * @return the parsed entry.
+   * @throws IOException if the entry cannot be read or does not match the
+   *         expected checksum.
+   * @throws XMLStreamException
+   */
+  private SBMLDocument read(ZipEntry entry, String md5) throws IOException, XMLStreamException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException exc) {
+      throw new IOException(exc);
+    }
+    InputStream is = new DigestInputStream(new BufferedInputStream(zipFile.getInputStream(entry), 1 << 16), digest);
+    try {
+      SBMLDocument doc = new SBMLReader().readSBMLFromStream(is);
+      if (md5 != null) {
+        // Consume the remainder so that the digest covers the whole entry.
+        byte buffer[] = new byte[8192];
+        while (is.read(buffer) != -1) {
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+          sb.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1));
+        }
+        if (!md5.equalsIgnoreCase(sb.toString())) {
+          throw new IOException(format("Checksum mismatch for {0} in {1}: expected {2}, found {3}", entry.getName(), zipFile.getName(), md5, sb));
+        }
+      }
+      return doc;
+    } finally {
+      is.close();
+    }
+  }
+
+  /**
+   * Removes all flat models from the cache. Parsed base models are kept.
+   */
+  public void clearCache() {
+    synchronized (cache) {
+      cache.clear();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    clearCache();
+    synchronized (baseModels) {
+      baseModels.clear();
+    }
+    zipFile.close();
+  }
+
+}
@@ -14,14 +14,22 @@ import java.io.StringWriter;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
@@ -37,7 +45,6 @@ import org.sbml.jsbml.SBMLDocument;
 import org.sbml.jsbml.SBMLError;
 import org.sbml.jsbml.SBMLException;
 import org.sbml.jsbml.SBMLReader;
-import org.sbml.jsbml.TidySBMLWriter;
 import org.sbml.jsbml.ext.comp.CompConstants;
 import org.sbml.jsbml.ext.comp.CompModelPlugin;
 import org.sbml.jsbml.ext.comp.CompSBMLDocumentPlugin;
@@ -86,7 +93,8 @@ public class TissueModelExtractor {
   public static final String MACOSX_HIDDEN_FOLDER = "__MACOSX";
   public static final String OMEX_EXTENSION = ".omex";
   
-  private static URI SBML_LEVEL_3_VERSION_1_RELEASE_2;
+  static URI SBML_LEVEL_3_VERSION_1_RELEASE_2;
+  static URI TAB_SEPARATED_VALUES;
 
   /** A {@link Logger} for this class */
   private static final Logger logger = Logger.getLogger(TissueModelExtractor.class.getName());
@@ -94,6 +102,7 @@ public class TissueModelExtractor {
   static {
     try {
       SBML_LEVEL_3_VERSION_1_RELEASE_2 = new URI("https://identifiers.org/combine.specifications/sbml.level-3.version-1.core.release-2");
+      TAB_SEPARATED_VALUES = new URI("http://purl.org/NET/mediatypes/text/tab-separated-values");
     } catch (URISyntaxException exc) {
       exc.printStackTrace();
       System.exit(1);
@@ -107,22 +116,36 @@ public class TissueModelExtractor {
    */
   public static int BUFFER = 4096;
 
-  /** The (consistent) base model */
+  /** The (consistent) base model, {@code null} in light mode */
   private final SBMLDocument baseDoc;
+  /** The properties of the base model needed for hierarchical submodels */
+  private final BaseModelInfo baseInfo;
   /** Where to store the generated models */
   private final CombineArchive archive;
   /** Where to store the (temporary) SBML files */
   private final File targetDir;
   /** The file where the base document is stored */
   private final File baseDocFile;
+  /** If {@code true}, all files get stable names and archives are normalized */
+  private final boolean reproducible;
+  /** Names of all model files written in reproducible mode, in lower case */
+  private final Set<String> fileNames = new HashSet<String>();
+  /** The creators in the meta data of each archive, {@code null} for the default */
+  private List<VCard> creators;
+  /** The date in the meta data of each archive, {@code null} for the current date */
+  private Date date;
+  /** How to write all model files */
+  private final SBMLOutput.Mode outputMode;
 
-  private final String md5;
+
+  /** Validates the generated submodels in the background, may be {@code null} */
+  private SubmodelValidator validator;
 
 
   /**
    *
    * @param doc the base document from which all submodels will be derived.
-   * @param ca the archive file that will bundle all files.
+   * @param ca the archive file that will bundle all files, or {@code null} if the models are packed into several volumes (see {@link ShardedArchiveWriter}).
    * @param descriptor a meaningful text that describes the content of the base model. This descriptor will be used as the name of the base file and can, consequently, not contain any blanks. It will also be used as the name within the SBML models. For this purpose, all underscore symbols will be automatically replaced with blanks.
    * @param targetDir where to store the temporary SBML files.
    * @throws SBMLException
@@ -133,12 +156,74 @@ public class TissueModelExtractor {
    */
   public TissueModelExtractor(SBMLDocument doc, CombineArchive ca, String descriptor, File targetDir)
         throws SBMLException, IOException, URISyntaxException, XMLStreamException, NoSuchAlgorithmException {
+    this(doc, ca, descriptor, targetDir, false, SBMLOutput.DEFAULT_MODE);
+  }
+
+
+  /**
+   *
+   * @param doc the base document from which all submodels will be derived.
+   * @param ca the archive file that will bundle all files, or {@code null} if the models are packed into several volumes (see {@link ShardedArchiveWriter}).
+   * @param descriptor a meaningful text that describes the content of the base model (see {@link #TissueModelExtractor(SBMLDocument, CombineArchive, String, File)}).
+   * @param targetDir where to store the temporary SBML files.
+   * @param reproducible if {@code true}, all model files are named after their descriptor instead of getting a random suffix, and all archives are normalized after packing (see {@link ReproducibleArchive}), so that identical inputs yield identical archives.
+   * @param outputMode how to write all model files (see {@link SBMLOutput}).
+   * @throws SBMLException
+   * @throws IOException
+   * @throws URISyntaxException
+   * @throws XMLStreamException
+   * @throws NoSuchAlgorithmException
+   */
+  public TissueModelExtractor(SBMLDocument doc, CombineArchive ca, String descriptor, File targetDir, boolean reproducible,
+    SBMLOutput.Mode outputMode) throws SBMLException, IOException, URISyntaxException, XMLStreamException, NoSuchAlgorithmException {
+    this.reproducible = reproducible;
+    this.outputMode = outputMode;
     this.baseDoc = doc;
     this.archive = ca;
     this.targetDir = targetDir;
     this.baseDocFile = writeTemporaryModelFile(doc, descriptor, targetDir);
-    this.md5 = checksum(baseDocFile);
-    archive.setMainEntry(addSBMLasArchiveEntry(baseDocFile));
+    this.baseInfo = BaseModelInfo.of(doc, checksum(baseDocFile));
+    if (archive != null) {
+      archive.setMainEntry(addSBMLasArchiveEntry(archive, baseDocFile));
+    }
+  }
+
+
+  /**
+   * Creates an extractor in light mode, which never loads the base model into
+   * memory. Instead, the base file is copied unchanged into the target
+   * directory, and all that {@link #createTissueModelComp(int[])} requires is
+   * collected during the copy (see {@link BaseModelInfo#copy(File, File)}). In
+   * this mode, {@link #createTissueModel(int[])} is not available.
+   *
+   * @param baseFile the uncompressed SBML file with the base model.
+   * @param ca the archive file that will bundle all files, or {@code null} if the models are packed into several volumes (see {@link ShardedArchiveWriter}).
+   * @param descriptor the name of the base file within the archive.
+   * @param targetDir where to store the temporary SBML files.
+   * @param reproducible if {@code true}, all model files get stable names and all archives are normalized after packing.
+   * @param outputMode how to write the submodel files; the base file is copied as it is.
+   * @throws IOException
+   * @throws URISyntaxException
+   * @throws XMLStreamException
+   * @throws SBMLException
+   */
+  public TissueModelExtractor(File baseFile, CombineArchive ca, String descriptor, File targetDir, boolean reproducible,
+    SBMLOutput.Mode outputMode) throws IOException, URISyntaxException, XMLStreamException, SBMLException {
+    this.reproducible = reproducible;
+    this.outputMode = outputMode;
+    this.baseDoc = null;
+    this.archive = ca;
+    this.targetDir = targetDir;
+    this.baseDocFile = new File(targetDir, ModelVariantsCreator.toFileName(descriptor) + SBML_EXTENSION);
+    fileNames.add(baseDocFile.getName().toLowerCase());
+    if (reproducible && baseDocFile.exists()) {
+      throw new IOException(format("Refusing to overwrite {0}, please use an empty target folder", baseDocFile.getAbsolutePath()));
+    }
+    this.baseInfo = BaseModelInfo.copy(baseFile, baseDocFile);
+    logger.info(format("File copied: {0}", baseDocFile.getAbsolutePath()));
+    if (archive != null) {
+      archive.setMainEntry(addSBMLasArchiveEntry(archive, baseDocFile));
+    }
   }
 
 
@@ -146,7 +231,36 @@ public class TissueModelExtractor {
    * @param args
    *        1) Input: The path to the SBML model that serves as the base model.
    *        2) Input: The path to a ZIP file containing lists of reaction identifiers to keep in tissue-specific models
+   *           (or, with option {@code --genes}, lists of expressed genes whose rules decide which reactions to keep)
    *        3) Output: The path to the target folder where the COMBINE archive is to be created as output.
+   *        Option {@code --output=tidy|compact} selects the format of the SBML
+   *        files within the archive (see {@link SBMLOutput}).
+   *        Option {@code --matrix} additionally writes a
+   *        {@link ReactionPresenceMatrix} next to the archive.
+   *        Option {@code --stoichiometry} additionally writes the
+   *        {@link StoichiometricMatrix} of the base model with one mask per
+   *        tissue next to the archive.
+   *        Option {@code --shard-size=n} packs at most n submodels into each
+   *        archive, writing numbered volumes concurrently (see
+   *        {@link ShardedArchiveWriter}); option {@code --threads=n} sets the
+   *        number of volumes written at the same time.
+   *        Option {@code --reproducible} gives all files stable names and
+   *        normalizes the order and time stamps of all archive entries, so
+   *        that identical inputs yield identical archives; since no existing
+   *        model file is replaced, the output folder must not contain files
+   *        of a previous run. Options
+   *        {@code --date=yyyy-MM-dd} (default in reproducible mode:
+   *        2000-01-01) and {@code --creators=<file>} (one creator per line:
+   *        family name, given name, e-mail, organization, separated by tabs)
+   *        set the meta data of the archive.
+   *        Option {@code --light} never loads the base model into memory and
+   *        copies it unchanged into the archive.
+   *        Option {@code --validate[=annotate|fail]} validates all submodels
+   *        in the background and adds a report to the archive, or next to
+   *        the volumes (see {@link SubmodelValidator}); in mode {@code fail},
+   *        no archive or volume remains if problems are found. Option
+   *        {@code --validate-threads=n} sets the number of validation
+   *        threads.
    * @throws IOException
    * @throws XMLStreamException
    * @throws CombineArchiveException
@@ -161,39 +275,119 @@ public class TissueModelExtractor {
       throws XMLStreamException, IOException, JDOMException, ParseException,
       CombineArchiveException, URISyntaxException, TransformerException, SBMLException, NoSuchAlgorithmException {
     long time1 = System.currentTimeMillis();
+    Arguments arguments = new Arguments(args);
+    // Reject what light mode cannot do before any model is written.
+    if (arguments.isSet("light")) {
+      for (String option : new String[] {"stoichiometry", "genes"}) {
+        if (arguments.isSet(option)) {
+          throw new IllegalArgumentException(format("Option --{0} requires the full base model and cannot be combined with --light", option));
+        }
+      }
+    }
     
-    File baseModelFile = new File(args[0]);
-    SBMLDocument baseModel = SBMLReader.read(baseModelFile);
-    File zipFile = new File(args[1]);
+    File baseModelFile = new File(arguments.get(0));
+    File zipFile = new File(arguments.get(1));
     
     // Create a folder where to store all these models.
     // We simply reuse the name of the ZIP archive with CSV files for naming the .
-    File targetFolder = new File(args[2]);
+    File targetFolder = new File(arguments.get(2));
     String descriptor = nameWithoutExtension(zipFile);
     File outputFolder = new File(targetFolder.getAbsolutePath() + File.separatorChar + descriptor);
     if (!outputFolder.exists()) {
       outputFolder.mkdir();
     }
     
-    File archiveFile = new File(targetFolder.getAbsolutePath() + File.separatorChar + descriptor + OMEX_EXTENSION);
-    if (archiveFile.exists()) {
-      archiveFile.delete();
+    int shardSize = arguments.getOption("shard-size", 0);
+    CombineArchive combineArchive = null;
+    if (shardSize <= 0) {
+      File archiveFile = new File(targetFolder.getAbsolutePath() + File.separatorChar + descriptor + OMEX_EXTENSION);
+      if (archiveFile.exists()) {
+        archiveFile.delete();
+      }
+      combineArchive = new CombineArchive(archiveFile);
     }
     
-    CombineArchive combineArchive = new CombineArchive(archiveFile);
-    
-    TissueModelExtractor tme = new TissueModelExtractor(
-      baseModel, combineArchive, nameWithoutExtension(baseModelFile), outputFolder);
+    boolean reproducible = arguments.isSet("reproducible");
+    SBMLOutput.Mode outputMode = SBMLOutput.getMode(arguments);
+    TissueModelExtractor tme;
+    if (arguments.isSet("light")) {
+      tme = new TissueModelExtractor(baseModelFile, combineArchive, nameWithoutExtension(baseModelFile), outputFolder, reproducible, outputMode);
+    } else {
+      tme = new TissueModelExtractor(
+        SBMLReader.read(baseModelFile), combineArchive, nameWithoutExtension(baseModelFile), outputFolder, reproducible, outputMode);
+    }
+    String creatorsFile = arguments.getOption("creators", null);
+    if (creatorsFile != null) {
+      tme.setCreators(readCreators(new File(creatorsFile)));
+    }
+    String dateOption = arguments.getOption("date", null);
+    if (dateOption != null) {
+      SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+      dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+      dateFormat.setLenient(false);
+      tme.setDate(dateFormat.parse(dateOption));
+    } else if (reproducible) {
+      tme.setDate(ReproducibleArchive.DEFAULT_DATE);
+    }
     
-    List<File> listOfModels = tme.buildSubModels(new ZipFile(zipFile));
+    SubmodelValidator validator = SubmodelValidator.configure(arguments);
+    tme.setValidator(validator);
+    try {
+      Map<String, int[]> reactionLists;
+      if (arguments.isSet("genes")) {
+        reactionLists = tme.evaluateGeneLists(tme.readGeneLists(new ZipFile(zipFile)));
+      } else {
+        reactionLists = tme.readReactionLists(new ZipFile(zipFile));
+      }
+      ShardedArchiveWriter shards = null;
+      if (shardSize > 0) {
+        shards = new ShardedArchiveWriter(tme, targetFolder, descriptor, shardSize,
+          arguments.getOption("threads", Runtime.getRuntime().availableProcessors()));
+      }
+      List<File> listOfModels = null;
+      try {
+        listOfModels = tme.buildSubModels(reactionLists, shards);
+        if (arguments.isSet("matrix")) {
+          File matrixFile = new File(targetFolder.getAbsolutePath() + File.separatorChar + descriptor + ReactionPresenceMatrix.EXTENSION);
+          tme.createPresenceMatrix(reactionLists).write(matrixFile);
+          logger.info(format("Reaction presence matrix written: {0}", matrixFile.getAbsolutePath()));
+        }
+        if (arguments.isSet("stoichiometry")) {
+          File matrixFile = new File(targetFolder.getAbsolutePath() + File.separatorChar + descriptor + StoichiometricMatrix.EXTENSION);
+          tme.createStoichiometricMatrix(reactionLists).write(matrixFile);
+          logger.info(format("Stoichiometric matrix written: {0}", matrixFile.getAbsolutePath()));
+        }
 
-    long time2 = System.currentTimeMillis();
+        long time2 = System.currentTimeMillis();
 
-    // Pack the archive
-    tme.packArchive(listOfModels);
+        // Pack the archive
+        if (shards != null) {
+          // Validate before the last volume and the index are written, so that
+          // a failure can still withdraw all volumes.
+          tme.finishValidation(new File(targetFolder, descriptor + '-' + SubmodelValidator.REPORT));
+          shards.finish();
+        } else {
+          tme.packArchive(listOfModels);
+        }
 
-    long time3 = System.currentTimeMillis();
-    logger.info(format("Time for creating models:\t{0,number} min\nTime for packing the archive:\t{1,number} min", (time2 - time1)/60000d, (time3 - time2)/60000d));
+        long time3 = System.currentTimeMillis();
+        logger.info(format("Time for creating models:\t{0,number} min\nTime for packing the archive:\t{1,number} min", (time2 - time1)/60000d, (time3 - time2)/60000d));
+      } catch (Throwable exc) {
+        // withdraw all volumes, whichever step has failed
+        if (shards != null) {
+          shards.abort();
+          if (listOfModels != null) {
+            deleteFiles(listOfModels);
+          }
+        }
+        throw exc;
+      }
+    } finally {
+      // ends pending validations if anything above failed
+      if (validator != null) {
+        validator.shutdownNow();
+      }
+    }
   }
   
   public static String nameWithoutExtension(@NotNull File file) {
@@ -204,20 +398,136 @@ public class TissueModelExtractor {
 
 
   /**
-   * @param listOfModels
+   * @param file a tab-separated file with one creator per line: family name, given name, e-mail, and organization.
+   * @return the creators in the order of the file.
    * @throws IOException
+   */
+  public static List<VCard> readCreators(File file) throws IOException {
+    List<VCard> creators = new ArrayList<VCard>();
+    for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+      if (!line.trim().isEmpty()) {
+        String columns[] = Arrays.copyOf(line.split("\t"), 4);
+        creators.add(new VCard(columns[0], columns[1], columns[2], columns[3]));
+      }
+    }
+    return creators;
+  }
+
+
+  /**
+   * @param creators the creators in the meta data of each archive; {@code null} restores the default.
+   */
+  public void setCreators(List<VCard> creators) {
+    this.creators = creators;
+  }
+
+
+  /**
+   * @param date the date in the meta data of each archive, also used as the time stamp of all entries in reproducible mode; {@code null} means the current date.
+   */
+  public void setDate(Date date) {
+    this.date = date;
+  }
+
+
+  /**
+   * @param validator validates all submodels created from now on in the
+   *        background; {@code null} switches validation off.
+   */
+  public void setValidator(SubmodelValidator validator) {
+    this.validator = validator;
+  }
+
+
+  /**
+   * @param listOfModels
+   * @throws IOException also if the validator is in mode
+   *         {@link SubmodelValidator.Mode#FAIL} and found problems. In this
+   *         case the archive is not finalized, and the archive file and all
+   *         model files are deleted; only the report is kept.
    * @throws URISyntaxException
    * @throws XMLStreamException
    * @throws TransformerException
    */
   public void packArchive(@org.jetbrains.annotations.NotNull List<File> listOfModels) throws IOException, URISyntaxException, XMLStreamException, TransformerException {
-    addArchiveMetaData();
-    for (int i = 0; i < listOfModels.size(); i++) {
-      File sbml = listOfModels.get(i);
-      addSBMLasArchiveEntry(sbml);
-      logger.info(format("Adding file #{0,number,integer} to archive: {1}", i, sbml.getAbsolutePath()));
+    addArchiveMetaData(archive);
+    addSBMLasArchiveEntries(archive, listOfModels);
+    // Only wait for the validation once all models have been packed.
+    File report;
+    try {
+      report = finishValidation(new File(targetDir, SubmodelValidator.REPORT));
+    } catch (IOException exc) {
+      archive.close();
+      deleteFiles(Collections.singletonList(archive.getZipLocation()));
+      deleteFiles(listOfModels);
+      deleteFiles(Collections.singletonList(baseDocFile));
+      throw exc;
+    }
+    if (report != null) {
+      archive.addEntry(report.getParentFile(), report, TAB_SEPARATED_VALUES);
+    }
+    finalizeArchive(archive);
+  }
+
+
+  /**
+   * Creates a separate archive with its own copy of the base model and the
+   * given submodels. Different volumes can be packed concurrently.
+   *
+   * @param archiveFile the archive to be created; an existing file is replaced.
+   * @param listOfModels the submodels to be packed into the archive.
+   * @throws IOException
+   * @throws URISyntaxException
+   * @throws XMLStreamException
+   * @throws TransformerException
+   * @throws JDOMException
+   * @throws ParseException
+   * @throws CombineArchiveException
+   */
+  public void packVolume(File archiveFile, List<File> listOfModels)
+      throws IOException, URISyntaxException, XMLStreamException, TransformerException, JDOMException, ParseException, CombineArchiveException {
+    if (archiveFile.exists()) {
+      archiveFile.delete();
+    }
+    CombineArchive volume = new CombineArchive(archiveFile);
+    volume.setMainEntry(addSBMLasArchiveEntry(volume, baseDocFile));
+    addArchiveMetaData(volume);
+    addSBMLasArchiveEntries(volume, listOfModels);
+    finalizeArchive(volume);
+  }
+
+
+  /**
+   * Deletes the given files, e.g., when an archive must not be published.
+   *
+   * @param files
+   */
+  public static void deleteFiles(List<File> files) {
+    for (File file : files) {
+      if (file.exists() && !file.delete()) {
+        logger.warning(format("Cannot delete {0}", file.getAbsolutePath()));
+      }
+    }
+  }
+
+
+  /**
+   * Waits for all pending validations (if any) and writes their report.
+   *
+   * @param report where to write the report.
+   * @return the report or {@code null} if validation is switched off.
+   * @throws IOException also if the validator is in mode
+   *         {@link SubmodelValidator.Mode#FAIL} and found problems.
+   */
+  public File finishValidation(File report) throws IOException {
+    if (validator == null) {
+      return null;
+    }
+    int problems = validator.writeReport(report);
+    if ((problems > 0) && (validator.getMode() == SubmodelValidator.Mode.FAIL)) {
+      throw new IOException(format("Validation found {0,number,integer} problems, see {1}", problems, report.getAbsolutePath()));
     }
-    finalizeArchive();
+    return report;
   }
 
 
@@ -231,32 +541,167 @@ public class TissueModelExtractor {
    */
   public List<File> buildSubModels(ZipFile zFile)
       throws ZipException, IOException, XMLStreamException {
+    return buildSubModels(readReactionLists(zFile));
+  }
+
+
+  /**
+   *
+   * @param zFile an archive containing CSV files, each with reaction indices to be used in submodels.
+   * @return for each non-empty CSV file its name without extension (which will also be the name of the submodel) and the (0-based) reaction indices in it, in the order of the archive.
+   * @throws ZipException
+   * @throws IOException
+   */
+  public Map<String, int[]> readReactionLists(ZipFile zFile)
+      throws ZipException, IOException {
+    Map<String, int[]> reactionLists = new LinkedHashMap<String, int[]>();
+    for (Map.Entry<String, ZipEntry> entry : listCSVEntries(zFile).entrySet()) {
+      reactionLists.put(entry.getKey(), parseReactionList(zFile.getInputStream(entry.getValue())));
+    }
+    zFile.close();
+    return reactionLists;
+  }
+
+
+  /**
+   *
+   * @param zFile an archive containing CSV files, each with the identifiers or labels of the genes expressed in one tissue, one per line.
+   * @return for each non-empty CSV file its name without extension and the genes in it, in the order of the archive.
+   * @throws ZipException
+   * @throws IOException
+   */
+  public Map<String, List<String>> readGeneLists(ZipFile zFile)
+      throws ZipException, IOException {
+    Map<String, List<String>> geneLists = new LinkedHashMap<String, List<String>>();
+    for (Map.Entry<String, ZipEntry> entry : listCSVEntries(zFile).entrySet()) {
+      List<String> genes = new ArrayList<String>();
+      for (String line : extractFile(zFile.getInputStream(entry.getValue())).split("\n")) {
+        line = line.trim();
+        if (!line.isEmpty()) {
+          genes.add(line);
+        }
+      }
+      geneLists.put(entry.getKey(), genes);
+    }
+    zFile.close();
+    return geneLists;
+  }
+
+
+  /**
+   * Evaluates the gene-protein-reaction rules of the base model for each
+   * tissue (see {@link GeneRuleProgram}).
+   *
+   * @param geneLists for each tissue its name and the genes expressed in it.
+   * @return for each tissue its name and the (0-based, sorted) indices of the reactions to keep.
+   * @throws IllegalStateException in light mode.
+   */
+  public Map<String, int[]> evaluateGeneLists(Map<String, List<String>> geneLists) {
+    if (baseDoc == null) {
+      throw new IllegalStateException("Gene rules require the full base model, which is not loaded in light mode");
+    }
+    return GeneRuleProgram.compile(baseDoc.getModel()).getReactionLists(geneLists);
+  }
+
+
+  /**
+   * @param zFile
+   * @return all non-empty CSV files in the archive by their name without extension, in the order of the archive.
+   */
+  private Map<String, ZipEntry> listCSVEntries(ZipFile zFile) {
     Enumeration<? extends ZipEntry> entries = zFile.entries();
-    List<File> listOfModels = new ArrayList<File>();
-    for (int i = 0, j = 0; entries.hasMoreElements(); i++) {
+    Map<String, ZipEntry> csvEntries = new LinkedHashMap<String, ZipEntry>();
+    while (entries.hasMoreElements()) {
       ZipEntry entry = entries.nextElement();
       String entryName = entry.getName();
       if (!entry.isDirectory() && entryName.toLowerCase().endsWith(CSV_EXTENSION) && !entryName.startsWith(MACOSX_HIDDEN_FOLDER)) {
         if (entry.getSize() > 0) {
-          logger.info(format("Processing model number {1,number,integer}:\t{0}", entryName, ++j));
-          int[] rIdxs = parseReactionList(zFile.getInputStream(entry));
-          logger.fine(format("Current file contains: {0}", Arrays.toString(rIdxs)));
-          SBMLDocument subDoc = createTissueModelComp(rIdxs);
           String descriptor = entryName.substring(entryName.lastIndexOf('/') + 1);
           if (descriptor.endsWith(CSV_EXTENSION)) {
             descriptor = descriptor.substring(0, descriptor.lastIndexOf('.'));
           }
-          listOfModels.add(writeTemporaryModelFile(subDoc, descriptor, targetDir));
+          String name = descriptor;
+          for (int i = 2; csvEntries.containsKey(name); i++) {
+            name = descriptor + '_' + i;
+          }
+          csvEntries.put(name, entry);
         } else {
           logger.info(format("Skipping:\t{0}", entryName));
         }
       }
     }
-    zFile.close();
+    return csvEntries;
+  }
+
+
+  /**
+   *
+   * @param reactionLists for each submodel to be created its name and the (0-based, sorted) indices of the reactions to keep.
+   * @return a list of model files each corresponding to one entry of the given map.
+   * @throws IOException
+   * @throws XMLStreamException
+   */
+  public List<File> buildSubModels(Map<String, int[]> reactionLists)
+      throws IOException, XMLStreamException {
+    return buildSubModels(reactionLists, null);
+  }
+
+
+  /**
+   *
+   * @param reactionLists for each submodel to be created its name and the (0-based, sorted) indices of the reactions to keep.
+   * @param shards receives each model file as soon as it has been written, so that full volumes can be packed while further models are built; may be {@code null}.
+   * @return a list of model files each corresponding to one entry of the given map.
+   * @throws IOException
+   * @throws XMLStreamException
+   */
+  public List<File> buildSubModels(Map<String, int[]> reactionLists, ShardedArchiveWriter shards)
+      throws IOException, XMLStreamException {
+    List<File> listOfModels = new ArrayList<File>();
+    int j = 0;
+    for (Map.Entry<String, int[]> entry : reactionLists.entrySet()) {
+      logger.info(format("Processing model number {1,number,integer}:\t{0}", entry.getKey(), ++j));
+      int[] rIdxs = entry.getValue();
+      logger.fine(format("Current file contains: {0}", Arrays.toString(rIdxs)));
+      SBMLDocument subDoc = createTissueModelComp(rIdxs);
+      // the exact tissue name, independent of the name of the file
+      subDoc.getModel().setName(entry.getKey());
+      File file = writeTemporaryModelFile(subDoc, entry.getKey(), targetDir);
+      listOfModels.add(file);
+      if (shards != null) {
+        shards.add(entry.getKey(), file);
+      }
+      if (validator != null) {
+        // The document is no longer needed here, so it can be checked concurrently.
+        validator.submit(entry.getKey(), subDoc);
+      }
+    }
     return listOfModels;
   }
 
 
+  /**
+   * @param reactionLists for each tissue its name and the (0-based) indices of the reactions it contains.
+   * @return a matrix that records for each tissue which reactions of the base model it contains.
+   */
+  public ReactionPresenceMatrix createPresenceMatrix(Map<String, int[]> reactionLists) {
+    return ReactionPresenceMatrix.fromIndices(baseInfo.getReactionIds(), reactionLists);
+  }
+
+
+  /**
+   * @param reactionLists for each tissue its name and the (0-based) indices of the reactions it contains.
+   * @return the stoichiometric matrix of the base model with a reaction mask for each tissue.
+   * @throws IllegalStateException in light mode.
+   */
+  public StoichiometricMatrix createStoichiometricMatrix(Map<String, int[]> reactionLists) {
+    if (baseDoc == null) {
+      throw new IllegalStateException("The stoichiometric matrix requires the full base model, which is not loaded in light mode");
+    }
+    return StoichiometricMatrix.fromModel(baseDoc.getModel(), reactionLists);
+  }
+
+
   /**
    *
    * @param inputStream
@@ -278,20 +723,31 @@ public class TissueModelExtractor {
   /**
    * Finalize the archive (write manifest and meta data) and close it.
    *
+   * @param archive
    * @throws IOException
    * @throws TransformerException
    */
-  private void finalizeArchive() throws IOException, TransformerException {
+  private void finalizeArchive(CombineArchive archive) throws IOException, TransformerException {
     logger.info(format("Packing archive is done. Finalizing {0}", archive.getZipLocation().getAbsolutePath()));
     archive.pack(false);
     archive.close();
+    if (reproducible) {
+      ReproducibleArchive.normalize(archive.getZipLocation(), date != null ? date : ReproducibleArchive.DEFAULT_DATE);
+    }
   }
 
 
   /**
-   * TODO: This writes hard-coded information to the archive and needs to be updated!
+   * Adds the creators and date set for this extractor or, by default, the
+   * hard-coded creators and the current date.
+   *
+   * @param archive
    */
-  private void addArchiveMetaData() {
+  private void addArchiveMetaData(CombineArchive archive) {
+    if (creators != null) {
+      archive.addDescription(new OmexMetaDataObject(new OmexDescription(creators, date != null ? date : new Date())));
+      return;
+    }
     // Meta data
     List<VCard> creators = new ArrayList<VCard> ();
     creators.add (new VCard ("Dr\u00E4ger", "Andreas",
@@ -300,11 +756,12 @@ public class TissueModelExtractor {
       "nantia.leonidou@uni-tuebingen.de", "Eberhard Karl University of T\u00FCbingen"));
     creators.add (new VCard ("Renz", "Alina",
       "alina.renz@uni-tuebingen.de", "Eberhard Karl University of T\u00FCbingen"));
-    archive.addDescription(new OmexMetaDataObject(new OmexDescription(creators, new Date())));
+    archive.addDescription(new OmexMetaDataObject(new OmexDescription(creators, date != null ? date : new Date())));
   }
 
 
   /**
+   * @param archive
    * @param sbmlFile
    * @return The generated archive entry.
    * @throws IOException
@@ -312,16 +769,33 @@ public class TissueModelExtractor {
    * @throws XMLStreamException
    * @throws SBMLException
    */
-  private ArchiveEntry addSBMLasArchiveEntry(File sbmlFile) throws IOException, URISyntaxException, SBMLException, XMLStreamException {
+  private ArchiveEntry addSBMLasArchiveEntry(CombineArchive archive, File sbmlFile) throws IOException, URISyntaxException, SBMLException, XMLStreamException {
     return archive.addEntry(sbmlFile.getParentFile(), sbmlFile, SBML_LEVEL_3_VERSION_1_RELEASE_2);
   }
 
+
+  /**
+   * @param archive
+   * @param listOfModels
+   * @throws IOException
+   * @throws URISyntaxException
+   * @throws XMLStreamException
+   */
+  private void addSBMLasArchiveEntries(CombineArchive archive, List<File> listOfModels) throws IOException, URISyntaxException, XMLStreamException {
+    for (int i = 0; i < listOfModels.size(); i++) {
+      File sbml = listOfModels.get(i);
+      addSBMLasArchiveEntry(archive, sbml);
+      logger.info(format("Adding file #{0,number,integer} to archive: {1}", i, sbml.getAbsolutePath()));
+    }
+  }
+
   /**
    * @param subDoc Submodel in SBML format
    * @param descriptor Name of the temporary file (without extension) and also display name for the submodel itself. In either case blanks are created or avoided and swapped with underscores.
    * @param directory Where to store the temporary model file.
    * @return The temporary model file.
-   * @throws IOException
+   * @throws IOException also if, in reproducible mode, the file already
+   *         exists, because it would otherwise be replaced.
    * @throws XMLStreamException
    */
   public File writeTemporaryModelFile(SBMLDocument subDoc, String descriptor, File directory)
@@ -336,9 +810,25 @@ public class TissueModelExtractor {
         logger.severe(error.getMessage());
       }
     }
-    // create temporary SBML file (we add an underscore to separate the meaningful name from the auto-genrated random number)
-    File tmp = File.createTempFile(descriptor + '_', SBML_EXTENSION, directory);
-    TidySBMLWriter.write(subDoc, tmp, ' ', (short) 2);
+    // tissue names may contain characters that are not allowed in file names
+    String fileName = ModelVariantsCreator.toFileName(descriptor);
+    File tmp;
+    if (reproducible) {
+      // stable names, with a counter only where two models share a file name,
+      // compared in lower case because the file system may ignore the case
+      String name = fileName;
+      for (int i = 2; !fileNames.add((name + SBML_EXTENSION).toLowerCase()); i++) {
+        name = fileName + '_' + i;
+      }
+      tmp = new File(directory, name + SBML_EXTENSION);
+      if (tmp.exists()) {
+        throw new IOException(format("Refusing to overwrite {0}, please use an empty target folder", tmp.getAbsolutePath()));
+      }
+    } else {
+      // create temporary SBML file (we add an underscore to separate the meaningful name from the auto-genrated random number)
+      tmp = File.createTempFile(fileName + '_', SBML_EXTENSION, directory);
+    }
+    SBMLOutput.write(subDoc, tmp, outputMode);
     logger.info(format("File written: {0}", tmp.getAbsolutePath()));
     return tmp;
   }
@@ -390,13 +880,33 @@ public class TissueModelExtractor {
    *
    * @param rIdx An array with indices of reactions to keep in the model. The
    * entries are assumed to be sorted.
+   * @throws IllegalStateException in light mode.
    */
   public SBMLDocument createTissueModel(int[] rIdx) {
+    if (baseDoc == null) {
+      throw new IllegalStateException("Flat tissue models require the full base model, which is not loaded in light mode");
+    }
     String rIds[] = new String[rIdx.length];
     Model m = baseDoc.getModel();
     for (int i = 0; i < rIdx.length; i++) {
       rIds[i] = m.getReaction(rIdx[i]).getId();
     }
+    SBMLDocument subDoc = createTissueModel(m, rIds);
+
+    logger.info(format("\nIntial reaction count\t= {0,number,integer}\nReactions to keep\t= {1,number,integer}\nSubmodel reaction count\t= {2,number,integer}", baseDoc.getModel().getReactionCount(), rIdx.length, subDoc.getModel().getReactionCount()));
+    return subDoc;
+  }
+
+  /**
+   * Creates a flat copy of the given model that contains only the given
+   * reactions together with all components they need. The given model is not
+   * changed.
+   *
+   * @param m the base model.
+   * @param rIds the identifiers of the reactions to keep.
+   * @return a new, corrected document.
+   */
+  public static SBMLDocument createTissueModel(Model m, String[] rIds) {
     SBMLDocument subDoc = SubModel.generateSubModel(m, null, null, rIds);
     // TODO: Recursively copy in all packages, for now only fbc on model
     if (m.getExtension(FBCConstants.shortLabel) != null) {
@@ -411,8 +921,6 @@ public class TissueModelExtractor {
       }
     }
     ModelCorrector.correct(subDoc);
-
-    logger.info(format("\nIntial reaction count\t= {0,number,integer}\nReactions to keep\t= {1,number,integer}\nSubmodel reaction count\t= {2,number,integer}", baseDoc.getModel().getReactionCount(), rIdx.length, subDoc.getModel().getReactionCount()));
     return subDoc;
   }
 
@@ -422,26 +930,26 @@ public class TissueModelExtractor {
    * @return
    */
   public SBMLDocument createTissueModelComp(int[] rIdx) {
-    Model baseModel = baseDoc.getModel();
-    SBMLDocument subDoc = new SBMLDocument(baseDoc.getLevel(), baseDoc.getVersion());
+    List<String> reactionIds = baseInfo.getReactionIds();
+    SBMLDocument subDoc = new SBMLDocument(baseInfo.getLevel(), baseInfo.getVersion());
     CompSBMLDocumentPlugin comp = (CompSBMLDocumentPlugin) subDoc.createPlugin(COMP);
-    ExternalModelDefinition emd = comp.createExternalModelDefinition(baseModel.getId());
+    ExternalModelDefinition emd = comp.createExternalModelDefinition(baseInfo.getId());
     emd.setSource(baseDocFile.getName());
-    emd.setModelRef(baseModel.getId());
-    emd.setMd5(md5);
+    emd.setModelRef(baseInfo.getId());
+    emd.setMd5(baseInfo.getMd5());
     Submodel submodel = ((CompModelPlugin) subDoc.createModel().createPlugin(COMP)).createSubmodel("tmp_id");
-    submodel.setId(SBMLtools.nameToSId(baseModel.getName(), subDoc));
-    submodel.setModelRef(baseModel.getId());
+    submodel.setId(SBMLtools.nameToSId(baseInfo.getName() != null ? baseInfo.getName() : baseInfo.getId(), subDoc));
+    submodel.setModelRef(baseInfo.getId());
     // Now, we only want the IDs of those reactions that are to be deleted!!!
-    for (int i = 0, j = 0; i < baseModel.getReactionCount(); i++) {
-      if (rIdx[j] == i) {
+    for (int i = 0, j = 0; i < reactionIds.size(); i++) {
+      if ((j < rIdx.length) && (rIdx[j] == i)) {
         j++;
       } else {
         Deletion deletion = submodel.createDeletion();
-        deletion.setIdRef(baseModel.getReaction(i).getId());
+        deletion.setIdRef(reactionIds.get(i));
       }
     }
-    logger.fine(format("\nModel reaction count = {0,number,integer}\nReaction index count = {1,number,integer}\nReactions to retain  = {2,number,integer}", baseModel.getReactionCount(), rIdx.length, submodel.getDeletionCount()));
+    logger.fine(format("\nModel reaction count = {0,number,integer}\nReaction index count = {1,number,integer}\nReactions to retain  = {2,number,integer}", reactionIds.size(), rIdx.length, submodel.getDeletionCount()));
     return subDoc;
   }
 
@@ -453,7 +961,7 @@ public class TissueModelExtractor {
    * @throws IOException
    * @throws NoSuchAlgorithmException
    */
-  private static String checksum(File file)
+  public static String checksum(File file)
       throws IOException, NoSuchAlgorithmException
   {
     MessageDigest digest = MessageDigest.getInstance("MD5");
@@ -2,11 +2,13 @@ package org.draegerlab.sbml;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 import javax.xml.stream.XMLStreamException;
 
 import org.sbml.jsbml.SBMLDocument;
 import org.sbml.jsbml.SBMLError;
+import org.sbml.jsbml.SBMLError.SEVERITY;
 import org.sbml.jsbml.SBMLErrorLog;
 import org.sbml.jsbml.SBMLReader;
 
@@ -28,4 +30,15 @@ public class Validate {
       }
     }
   }
+
+  /**
+   * Runs the offline consistency check on the given document.
+   *
+   * @param doc the document to be validated.
+   * @return all reported problems of severity {@link SEVERITY#ERROR}.
+   */
+  public static List<SBMLError> check(SBMLDocument doc) {
+    doc.checkConsistencyOffline();
+    return doc.getListOfErrors().getErrorsBySeverity(SEVERITY.ERROR);
+  }
 }
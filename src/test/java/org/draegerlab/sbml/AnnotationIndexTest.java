@@ -0,0 +1,138 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link AnnotationIndex}.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class AnnotationIndexTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * @param file
+   * @param species pairs of species identifier and resource.
+   * @throws IOException
+   */
+  private static void writeModel(File file, String... species) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+    sb.append("<sbml xmlns=\"http://www.sbml.org/sbml/level3/version1/core\" level=\"3\" version=\"1\">");
+    sb.append("<model id=\"m\"><listOfSpecies>");
+    for (int i = 0; i < species.length; i += 2) {
+      sb.append("<species id=\"").append(species[i]).append("\" compartment=\"c\" metaid=\"").append(species[i]).append("\">");
+      sb.append("<annotation><rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"");
+      sb.append(" xmlns:bqbiol=\"http://biomodels.net/biology-qualifiers/\"><rdf:Description rdf:about=\"#").append(species[i]).append("\">");
+      sb.append("<bqbiol:is><rdf:Bag><rdf:li rdf:resource=\"").append(species[i + 1]).append("\"/></rdf:Bag></bqbiol:is>");
+      sb.append("</rdf:Description></rdf:RDF></annotation></species>");
+    }
+    sb.append("</listOfSpecies></model></sbml>");
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void normalizesNotations() {
+    assertEquals("kegg.compound:C00031", AnnotationIndex.normalize("https://identifiers.org/kegg.compound/C00031"));
+    assertEquals("kegg.compound:C00031", AnnotationIndex.normalize("http://identifiers.org/kegg.compound:C00031"));
+    assertEquals("kegg.compound:C00031", AnnotationIndex.normalize(" kegg.compound:C00031 "));
+    assertEquals("CHEBI:4167", AnnotationIndex.normalize("https://identifiers.org/chebi/CHEBI:4167"));
+  }
+
+  @Test
+  public void findsSpeciesOfAllModels() throws IOException, XMLStreamException, NoSuchAlgorithmException {
+    File collection = folder.newFolder("collection");
+    writeModel(new File(collection, "a.xml"), "M_glc_c", "http://identifiers.org/kegg.compound/C00031",
+      "M_h2o_c", "http://identifiers.org/kegg.compound/C00001");
+    writeModel(new File(collection, "sub/b.xml"), "glucose", "https://identifiers.org/kegg.compound:C00031");
+    File indexDir = new File(folder.getRoot(), "index");
+    AnnotationIndex.build(collection, indexDir, 2);
+
+    AnnotationIndex index = new AnnotationIndex(indexDir);
+    try {
+      assertEquals(2, index.size());
+      assertEquals(Arrays.asList("a.xml\tc\tM_glc_c", "sub/b.xml\tc\tglucose"), index.lookup("kegg.compound:C00031"));
+      assertEquals(Collections.singletonList("a.xml\tc\tM_h2o_c"), index.lookup("https://identifiers.org/kegg.compound/C00001"));
+      assertTrue(index.lookup("kegg.compound:C99999").isEmpty());
+    } finally {
+      index.close();
+    }
+  }
+
+  @Test
+  public void updatesChangedCollection() throws IOException, XMLStreamException, NoSuchAlgorithmException {
+    File collection = folder.newFolder("collection");
+    File a = new File(collection, "a.xml");
+    writeModel(a, "M_glc_c", "kegg.compound:C00031");
+    writeModel(new File(collection, "b.xml"), "M_h2o_c", "kegg.compound:C00001");
+    File indexDir = new File(folder.getRoot(), "index");
+    AnnotationIndex.build(collection, indexDir, 1);
+
+    new File(collection, "b.xml").delete();
+    writeModel(a, "M_glc_c", "kegg.compound:C00031", "M_atp_c", "kegg.compound:C00002");
+    a.setLastModified(a.lastModified() + 2000);
+    AnnotationIndex.build(collection, indexDir, 1);
+
+    AnnotationIndex index = new AnnotationIndex(indexDir);
+    try {
+      assertTrue(index.lookup("kegg.compound:C00001").isEmpty());
+      assertEquals(Collections.singletonList("a.xml\tc\tM_atp_c"), index.lookup("kegg.compound:C00002"));
+    } finally {
+      index.close();
+    }
+    // only the postings of the current version of a.xml remain
+    assertEquals(1, new File(indexDir, "postings").list().length);
+  }
+
+  @Test
+  public void skipsDamagedAndForeignFiles() throws IOException, XMLStreamException, NoSuchAlgorithmException {
+    File collection = folder.newFolder("collection");
+    writeModel(new File(collection, "a.xml"), "M_glc_c", "kegg.compound:C00031");
+    Files.write(new File(collection, "broken.xml").toPath(), "<sbml><model".getBytes(StandardCharsets.UTF_8));
+    Files.write(new File(collection, "notes.txt").toPath(), "not a model".getBytes(StandardCharsets.UTF_8));
+    // an index located inside of the collection must not index itself
+    File indexDir = new File(collection, "index");
+    AnnotationIndex.build(collection, indexDir, 2);
+    AnnotationIndex.build(collection, indexDir, 2);
+
+    AnnotationIndex index = new AnnotationIndex(indexDir);
+    try {
+      assertEquals(1, index.size());
+    } finally {
+      index.close();
+    }
+    List<String> manifest = Files.readAllLines(new File(indexDir, "manifest.tsv").toPath(), StandardCharsets.UTF_8);
+    assertEquals(1, manifest.size());
+    assertTrue(manifest.get(0), manifest.get(0).startsWith("a.xml\t"));
+  }
+
+  @Test(expected = IOException.class)
+  public void rejectsForeignIndexFile() throws IOException {
+    File indexDir = folder.newFolder("index");
+    Files.write(new File(indexDir, "annotations.idx").toPath(), new byte[16]);
+    new AnnotationIndex(indexDir).close();
+  }
+
+}
@@ -0,0 +1,47 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link Arguments}.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class ArgumentsTest {
+
+  @Test
+  public void separatesOptionsFromPositionalArguments() {
+    Arguments arguments = new Arguments("in.xml", "--validate", "--threads=4", "out.xml", "--output=compact");
+    assertEquals(Arrays.asList("in.xml", "out.xml"), arguments.getPositional());
+    assertEquals(2, arguments.size());
+    assertEquals("out.xml", arguments.get(1));
+    assertTrue(arguments.isSet("validate"));
+    assertEquals(4, arguments.getOption("threads", 1));
+    assertEquals("compact", arguments.getOption("output", "tidy"));
+  }
+
+  @Test
+  public void appliesDefaults() {
+    Arguments arguments = new Arguments("in.xml", "--light=false");
+    assertFalse(arguments.isSet("light"));
+    assertFalse(arguments.isSet("validate"));
+    assertEquals(7, arguments.getOption("threads", 7));
+    assertEquals("tidy", arguments.getOption("output", "tidy"));
+    assertEquals("default", arguments.get(1, "default"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsMissingArgument() {
+    new Arguments("--validate").get(0);
+  }
+
+}
@@ -0,0 +1,114 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link BaseModelInfo#copy(File, File)}.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class BaseModelInfoTest {
+
+  /**
+   * Reactions of a nested model definition and a trailing comment must not
+   * end up in the list, but the comment must be part of the copy.
+   */
+  private static final String MODEL = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+      + "<sbml xmlns=\"http://www.sbml.org/sbml/level3/version1/core\" level=\"3\" version=\"1\">\n"
+      + "  <model id=\"base\" name=\"Base model\">\n"
+      + "    <listOfReactions>\n"
+      + "      <reaction id=\"R_1\" reversible=\"false\" fast=\"false\"/>\n"
+      + "      <reaction id=\"R_2\" reversible=\"true\" fast=\"false\"/>\n"
+      + "    </listOfReactions>\n"
+      + "  </model>\n"
+      + "  <comp:listOfModelDefinitions xmlns:comp=\"http://www.sbml.org/sbml/level3/version1/comp/version1\">\n"
+      + "    <comp:modelDefinition id=\"other\"><listOfReactions><reaction id=\"R_3\"/></listOfReactions></comp:modelDefinition>\n"
+      + "  </comp:listOfModelDefinitions>\n"
+      + "</sbml>\n"
+      + "<!-- trailing comment -->\n";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * @param content
+   * @return a new file with the given content.
+   * @throws IOException
+   */
+  private File write(String content) throws IOException {
+    File file = folder.newFile();
+    Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+
+  @Test
+  public void copiesFileAndCollectsProperties() throws IOException, XMLStreamException, NoSuchAlgorithmException {
+    File source = write(MODEL);
+    File target = new File(folder.getRoot(), "copy.xml");
+    BaseModelInfo info = BaseModelInfo.copy(source, target);
+    assertEquals("base", info.getId());
+    assertEquals("Base model", info.getName());
+    assertEquals(3, info.getLevel());
+    assertEquals(1, info.getVersion());
+    assertEquals(Arrays.asList("R_1", "R_2"), info.getReactionIds());
+
+    byte bytes[] = Files.readAllBytes(source.toPath());
+    assertArrayEquals(bytes, Files.readAllBytes(target.toPath()));
+    assertEquals(String.format("%032x", new BigInteger(1, MessageDigest.getInstance("MD5").digest(bytes))), info.getMd5());
+  }
+
+  @Test
+  public void acceptsModelWithoutId() throws IOException, XMLStreamException {
+    File source = write("<sbml xmlns=\"http://www.sbml.org/sbml/level3/version2/core\" level=\"3\" version=\"2\">"
+        + "<model><listOfReactions><reaction id=\"R_1\"/></listOfReactions></model></sbml>");
+    BaseModelInfo info = BaseModelInfo.copy(source, new File(folder.getRoot(), "copy.xml"));
+    assertNull(info.getId());
+    assertEquals(2, info.getVersion());
+    assertEquals(Arrays.asList("R_1"), info.getReactionIds());
+  }
+
+  @Test
+  public void deletesTargetIfNoModelFound() throws IOException {
+    File target = new File(folder.getRoot(), "copy.xml");
+    try {
+      BaseModelInfo.copy(write("<sbml level=\"3\" version=\"1\"></sbml>"), target);
+      fail("Expected an XMLStreamException");
+    } catch (XMLStreamException exc) {
+      assertFalse(target.exists());
+    }
+  }
+
+  @Test
+  public void deletesTargetIfFileIsDamaged() throws IOException {
+    File target = new File(folder.getRoot(), "copy.xml");
+    try {
+      BaseModelInfo.copy(write("<sbml level=\"3\" version=\"1\"><model id=\"m\"><listOf"), target);
+      fail("Expected an XMLStreamException");
+    } catch (XMLStreamException exc) {
+      assertFalse(target.exists());
+    }
+  }
+
+}
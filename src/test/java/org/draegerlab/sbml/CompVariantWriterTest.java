@@ -0,0 +1,110 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.sbml.jsbml.ASTNode;
+import org.sbml.jsbml.KineticLaw;
+import org.sbml.jsbml.Model;
+import org.sbml.jsbml.Reaction;
+import org.sbml.jsbml.SBMLDocument;
+import org.sbml.jsbml.Species;
+import org.sbml.jsbml.ext.comp.CompConstants;
+import org.sbml.jsbml.ext.comp.CompSBMLDocumentPlugin;
+import org.sbml.jsbml.ext.comp.CompSBasePlugin;
+import org.sbml.jsbml.ext.comp.ExternalModelDefinition;
+import org.sbml.jsbml.ext.fbc.FBCConstants;
+import org.sbml.jsbml.ext.fbc.FBCReactionPlugin;
+
+/**
+ * Tests for {@link CompVariantWriter}.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class CompVariantWriterTest {
+
+  /**
+   * @return a model with the reactions {@code R_1: A -> B} with bounds
+   *         {@code lb} and {@code ub}, and {@code R_2: B -> C} with a kinetic
+   *         law {@code k * kl * B}, where {@code kl} is a local parameter.
+   */
+  private static Model createModel() {
+    Model m = new SBMLDocument(3, 1).createModel("base");
+    m.createCompartment("c");
+    for (String id : new String[] {"A", "B", "C"}) {
+      m.createSpecies(id, m.getCompartment("c"));
+    }
+    for (String id : new String[] {"lb", "ub", "zero", "k"}) {
+      m.createParameter(id).setConstant(true);
+    }
+    Reaction r1 = m.createReaction("R_1");
+    r1.createReactant(m.getSpecies("A"));
+    r1.createProduct(m.getSpecies("B"));
+    FBCReactionPlugin rplug = (FBCReactionPlugin) r1.getPlugin(FBCConstants.namespaceURI_L3V1V2);
+    rplug.setLowerFluxBound("lb");
+    rplug.setUpperFluxBound("ub");
+    Reaction r2 = m.createReaction("R_2");
+    r2.createReactant(m.getSpecies("B"));
+    r2.createProduct(m.getSpecies("C"));
+    KineticLaw kl = r2.createKineticLaw();
+    kl.createLocalParameter("kl");
+    kl.setMath(ASTNode.times(new ASTNode("k"), new ASTNode("kl"), new ASTNode("B")));
+    return m;
+  }
+
+  @Test
+  public void replacesOnlyAffectedElements() {
+    CompVariantWriter writer = new CompVariantWriter(createModel(), "base.xml", "0123");
+    SBMLDocument doc = writer.createVariant("knock out", Collections.singletonList(new ReactionEdit("R_1", null, "zero", null)));
+
+    ExternalModelDefinition emd = ((CompSBMLDocumentPlugin) doc.getExtension(CompConstants.shortLabel)).getExternalModelDefinition("base");
+    assertEquals("base.xml", emd.getSource());
+    assertEquals("0123", emd.getMd5());
+
+    Model m = doc.getModel();
+    assertEquals(1, m.getReactionCount());
+    assertEquals(2, m.getSpeciesCount());
+    assertNull(m.getSpecies("C"));
+    assertNotNull(m.getCompartment("c"));
+    // the new lower bound and the unchanged upper bound, but not the old lower bound
+    assertNotNull(m.getParameter("zero"));
+    assertNotNull(m.getParameter("ub"));
+    assertNull(m.getParameter("lb"));
+    assertEquals("zero", ((FBCReactionPlugin) m.getReaction("R_1").getExtension(FBCConstants.shortLabel)).getLowerFluxBound());
+
+    Species a = m.getSpecies("A");
+    assertEquals("A", ((CompSBasePlugin) a.getExtension(CompConstants.shortLabel)).getReplacedElement(0).getIdRef());
+  }
+
+  @Test
+  public void copiesGlobalParametersOfKineticLaw() {
+    CompVariantWriter writer = new CompVariantWriter(createModel(), "base.xml", "0123");
+    Model m = writer.createVariant("slow", Arrays.asList(new ReactionEdit("R_2", Boolean.FALSE, null, null))).getModel();
+    assertNotNull(m.getParameter("k"));
+    assertNull(m.getParameter("kl"));
+    assertNotNull(m.getSpecies("B"));
+    assertFalse(m.getReaction("R_2").getReversible());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsUnknownBound() {
+    new CompVariantWriter(createModel(), "base.xml", "0123").createVariant("v",
+      Collections.singletonList(new ReactionEdit("R_1", null, "undefined", null)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsUnknownReaction() {
+    new CompVariantWriter(createModel(), "base.xml", "0123").createVariant("v",
+      Collections.singletonList(new ReactionEdit("R_unknown", Boolean.TRUE, null, null)));
+  }
+
+}
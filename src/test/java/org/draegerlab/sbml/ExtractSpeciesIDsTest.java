@@ -0,0 +1,119 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.draegerlab.sbml.ExtractSpeciesIDs.SpeciesAnnotation;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link ExtractSpeciesIDs}.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class ExtractSpeciesIDsTest {
+
+  /** Two species in the cytosol and one in the extracellular space */
+  private static final String MODEL = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+      + "<sbml xmlns=\"http://www.sbml.org/sbml/level3/version1/core\" level=\"3\" version=\"1\">"
+      + "<model id=\"m\"><listOfSpecies>"
+      + species("M_glc__D_c", "c", "http://identifiers.org/kegg.compound/C00031", "http://identifiers.org/chebi/CHEBI:4167")
+      + "<species id=\"M_h2o_c\" compartment=\"c\"/>"
+      + species("M_glc__D_e", "e", "http://identifiers.org/kegg.compound/C00031")
+      + "</listOfSpecies></model></sbml>";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * @param id
+   * @param compartment
+   * @param resources
+   * @return a species element annotated with the given resources by
+   *         {@code bqbiol:is}.
+   */
+  private static String species(String id, String compartment, String... resources) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("<species id=\"").append(id).append("\" compartment=\"").append(compartment).append("\" metaid=\"").append(id).append("\">");
+    sb.append("<annotation><rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"");
+    sb.append(" xmlns:bqbiol=\"http://biomodels.net/biology-qualifiers/\"><rdf:Description rdf:about=\"#").append(id).append("\">");
+    // a different qualifier must not be reported
+    sb.append("<bqbiol:hasProperty><rdf:Bag><rdf:li rdf:resource=\"http://identifiers.org/sbo/SBO:0000247\"/></rdf:Bag></bqbiol:hasProperty>");
+    sb.append("<bqbiol:is><rdf:Bag>");
+    for (String resource : resources) {
+      sb.append("<rdf:li rdf:resource=\"").append(resource).append("\"/>");
+    }
+    sb.append("</rdf:Bag></bqbiol:is></rdf:Description></rdf:RDF></annotation></species>");
+    return sb.toString();
+  }
+
+  /**
+   * @param compartments
+   * @param filter
+   * @return all species reported for the model.
+   * @throws XMLStreamException
+   */
+  private static List<SpeciesAnnotation> extract(Set<String> compartments, Pattern filter) throws XMLStreamException {
+    List<SpeciesAnnotation> list = new ArrayList<SpeciesAnnotation>();
+    ExtractSpeciesIDs.extract(new ByteArrayInputStream(MODEL.getBytes(StandardCharsets.UTF_8)), compartments, filter, list::add);
+    return list;
+  }
+
+  @Test
+  public void reportsResourcesOfSelectedCompartment() throws XMLStreamException {
+    List<SpeciesAnnotation> list = extract(Collections.singleton("c"), null);
+    assertEquals(2, list.size());
+    assertEquals("M_glc__D_c", list.get(0).getSpecies());
+    assertEquals("c", list.get(0).getCompartment());
+    assertEquals(Arrays.asList("http://identifiers.org/kegg.compound/C00031", "http://identifiers.org/chebi/CHEBI:4167"),
+      list.get(0).getResources());
+    assertEquals("M_h2o_c", list.get(1).getSpecies());
+    assertTrue(list.get(1).getResources().isEmpty());
+  }
+
+  @Test
+  public void reportsAllCompartments() throws XMLStreamException {
+    assertEquals(3, extract(null, null).size());
+    assertEquals(3, extract(new HashSet<String>(Arrays.asList("c", "e")), null).size());
+  }
+
+  @Test
+  public void filtersResources() throws XMLStreamException {
+    List<SpeciesAnnotation> list = extract(Collections.singleton("c"), Pattern.compile("kegg"));
+    assertEquals(Collections.singletonList("http://identifiers.org/kegg.compound/C00031"), list.get(0).getResources());
+  }
+
+  @Test
+  public void readsCompressedFiles() throws IOException, XMLStreamException {
+    File file = folder.newFile("model.xml.gz");
+    GZIPOutputStream gz = new GZIPOutputStream(Files.newOutputStream(file.toPath()));
+    gz.write(MODEL.getBytes(StandardCharsets.UTF_8));
+    gz.close();
+    List<SpeciesAnnotation> list = new ArrayList<SpeciesAnnotation>();
+    ExtractSpeciesIDs.extract(file, Collections.singleton("e"), null, list::add);
+    assertEquals(1, list.size());
+    assertEquals("M_glc__D_e", list.get(0).getSpecies());
+  }
+
+}
@@ -0,0 +1,62 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.sbml.jsbml.Model;
+import org.sbml.jsbml.SBMLDocument;
+import org.sbml.jsbml.ext.layout.Layout;
+import org.sbml.jsbml.ext.layout.LayoutConstants;
+import org.sbml.jsbml.ext.layout.LayoutModelPlugin;
+import org.sbml.jsbml.ext.layout.TextGlyph;
+
+/**
+ * Tests for {@link FixLayoutIDs#insertLayout(SBMLDocument, SBMLDocument)}.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class FixLayoutIDsTest {
+
+  @Test
+  public void addsPrefixesToGlyphReferences() {
+    SBMLDocument doc = new SBMLDocument(3, 1);
+    Model m = doc.createModel("bigg");
+    m.createCompartment("c");
+    m.createSpecies("M_glc", m.getCompartment("c"));
+    m.createReaction("R_PGI");
+
+    SBMLDocument layoutDoc = new SBMLDocument(3, 1);
+    Model escher = layoutDoc.createModel("escher");
+    LayoutModelPlugin lmp = (LayoutModelPlugin) escher.getPlugin(LayoutConstants.shortLabel);
+    Layout layout = lmp.createLayout("layout");
+    layout.createSpeciesGlyph("sg_glc", "glc");
+    layout.createReactionGlyph("rg_PGI", "PGI");
+    TextGlyph tg = layout.createTextGlyph("tg_glc");
+    tg.setOriginOfText("glc");
+
+    // species glyph, text glyph, and reaction glyph
+    assertEquals(3, FixLayoutIDs.insertLayout(layoutDoc, doc));
+    Layout inserted = ((LayoutModelPlugin) m.getPlugin(LayoutConstants.shortLabel)).getLayout(0);
+    assertEquals("M_glc", inserted.getSpeciesGlyph("sg_glc").getSpecies());
+    assertEquals("R_PGI", inserted.getReactionGlyph("rg_PGI").getReaction());
+    assertEquals("M_glc", inserted.getTextGlyph("tg_glc").getOriginOfText());
+  }
+
+  @Test
+  public void keepsCorrectReferences() {
+    SBMLDocument doc = new SBMLDocument(3, 1);
+    Model m = doc.createModel("bigg");
+    m.createCompartment("c");
+    m.createSpecies("M_glc", m.getCompartment("c"));
+
+    SBMLDocument layoutDoc = new SBMLDocument(3, 1);
+    LayoutModelPlugin lmp = (LayoutModelPlugin) layoutDoc.createModel("escher").getPlugin(LayoutConstants.shortLabel);
+    lmp.createLayout("layout").createSpeciesGlyph("sg_glc", "M_glc");
+
+    assertEquals(0, FixLayoutIDs.insertLayout(layoutDoc, doc));
+  }
+
+}
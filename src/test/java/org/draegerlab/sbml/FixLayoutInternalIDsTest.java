@@ -0,0 +1,104 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+import org.sbml.jsbml.Model;
+import org.sbml.jsbml.ModifierSpeciesReference;
+import org.sbml.jsbml.Reaction;
+import org.sbml.jsbml.SBMLDocument;
+import org.sbml.jsbml.Species;
+import org.sbml.jsbml.SpeciesReference;
+import org.sbml.jsbml.ext.layout.Layout;
+import org.sbml.jsbml.ext.layout.LayoutConstants;
+import org.sbml.jsbml.ext.layout.LayoutModelPlugin;
+import org.sbml.jsbml.ext.layout.ReactionGlyph;
+import org.sbml.jsbml.ext.layout.SpeciesReferenceGlyph;
+
+/**
+ * Tests for {@link FixLayoutInternalIDs}.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class FixLayoutInternalIDsTest {
+
+  private SBMLDocument doc;
+  private Reaction r;
+  private ReactionGlyph rg;
+
+  /**
+   * Creates a model with one reaction {@code r1}: {@code A -> B}, modified by
+   * {@code A}, and a layout with a glyph for each species and the reaction.
+   */
+  private void createModel() {
+    doc = new SBMLDocument(3, 1);
+    Model m = doc.createModel("m");
+    m.createCompartment("c");
+    Species a = m.createSpecies("A", m.getCompartment("c"));
+    Species b = m.createSpecies("B", m.getCompartment("c"));
+    r = m.createReaction("r1");
+    r.createReactant(a);
+    r.createProduct(b);
+    r.createModifier(a);
+    LayoutModelPlugin lmp = (LayoutModelPlugin) m.getPlugin(LayoutConstants.shortLabel);
+    Layout layout = lmp.createLayout("layout");
+    layout.createSpeciesGlyph("sg_A", "A");
+    layout.createSpeciesGlyph("sg_B", "B");
+    rg = layout.createReactionGlyph("rg_r1", "r1");
+  }
+
+  /**
+   * @param id
+   * @param speciesGlyph
+   * @param speciesReference
+   * @return a new glyph of the reaction.
+   */
+  private SpeciesReferenceGlyph createGlyph(String id, String speciesGlyph, String speciesReference) {
+    SpeciesReferenceGlyph srg = rg.createSpeciesReferenceGlyph(id);
+    srg.setSpeciesGlyph(speciesGlyph);
+    srg.setSpeciesReference(speciesReference);
+    return srg;
+  }
+
+  @Test
+  public void assignsGlyphReferenceToUnnamedReference() {
+    createModel();
+    createGlyph("srg_B", "sg_B", "sr_B");
+    assertEquals(1, FixLayoutInternalIDs.fixSpeciesReferences(doc));
+    assertEquals("sr_B", r.getProduct(0).getId());
+  }
+
+  @Test
+  public void pointsGlyphToNamedReference() {
+    createModel();
+    SpeciesReference product = r.getProduct(0);
+    product.setId("product");
+    SpeciesReferenceGlyph srg = createGlyph("srg_B", "sg_B", "wrong");
+    assertEquals(1, FixLayoutInternalIDs.fixSpeciesReferences(doc));
+    assertEquals("product", srg.getSpeciesReference());
+    // a second pass has nothing left to do
+    assertEquals(0, FixLayoutInternalIDs.fixSpeciesReferences(doc));
+  }
+
+  @Test
+  public void prefersReactantOverModifier() {
+    createModel();
+    createGlyph("srg_A", "sg_A", "sr_A");
+    assertEquals(1, FixLayoutInternalIDs.fixSpeciesReferences(doc));
+    assertEquals("sr_A", r.getReactant(0).getId());
+    ModifierSpeciesReference modifier = r.getModifier(0);
+    assertFalse(modifier.isSetId());
+  }
+
+  @Test
+  public void ignoresModelWithoutLayout() {
+    SBMLDocument plain = new SBMLDocument(3, 1);
+    plain.createModel("m");
+    assertEquals(0, FixLayoutInternalIDs.fixSpeciesReferences(plain));
+  }
+
+}
@@ -0,0 +1,132 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.sbml.jsbml.Model;
+import org.sbml.jsbml.SBMLDocument;
+import org.sbml.jsbml.ext.fbc.And;
+import org.sbml.jsbml.ext.fbc.Association;
+import org.sbml.jsbml.ext.fbc.FBCConstants;
+import org.sbml.jsbml.ext.fbc.FBCModelPlugin;
+import org.sbml.jsbml.ext.fbc.FBCReactionPlugin;
+import org.sbml.jsbml.ext.fbc.GeneProductAssociation;
+import org.sbml.jsbml.ext.fbc.GeneProductRef;
+import org.sbml.jsbml.ext.fbc.LogicalOperator;
+import org.sbml.jsbml.ext.fbc.Or;
+
+/**
+ * Tests for {@link GeneRuleProgram}.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class GeneRuleProgramTest {
+
+  /**
+   * @param gene
+   * @return a reference to the given gene product.
+   */
+  private static GeneProductRef ref(String gene) {
+    GeneProductRef ref = new GeneProductRef(3, 1);
+    ref.setGeneProduct(gene);
+    return ref;
+  }
+
+  /**
+   * @param operator
+   * @param operands
+   * @return the operator with the given operands.
+   */
+  private static LogicalOperator op(LogicalOperator operator, Association... operands) {
+    for (Association operand : operands) {
+      operator.addAssociation(operand);
+    }
+    return operator;
+  }
+
+  /**
+   * @param m
+   * @param id
+   * @param rule the gene rule or {@code null}.
+   */
+  private static void createReaction(Model m, String id, Association rule) {
+    FBCReactionPlugin rplug = (FBCReactionPlugin) m.createReaction(id).getPlugin(FBCConstants.namespaceURI_L3V1V2);
+    if (rule != null) {
+      GeneProductAssociation gpa = new GeneProductAssociation(3, 1);
+      gpa.setAssociation(rule);
+      rplug.setGeneProductAssociation(gpa);
+    }
+  }
+
+  /**
+   * Genes {@code G_a}, {@code G_b}, and {@code G_c} with the labels
+   * {@code a}, {@code b}, and {@code G_a}, and the reactions
+   * <ol start="0">
+   * <li>{@code G_a and G_b}
+   * <li>{@code G_a or (G_b and G_c)}
+   * <li>without rule
+   * <li>{@code G_x}, which is not declared
+   * </ol>
+   *
+   * @return the compiled rules of the model.
+   */
+  private static GeneRuleProgram compile() {
+    Model m = new SBMLDocument(3, 1).createModel("m");
+    FBCModelPlugin fbc = (FBCModelPlugin) m.getPlugin(FBCConstants.namespaceURI_L3V1V2);
+    fbc.createGeneProduct("G_a").setLabel("a");
+    fbc.createGeneProduct("G_b").setLabel("b");
+    fbc.createGeneProduct("G_c").setLabel("G_a");
+    createReaction(m, "R_1", op(new And(3, 1), ref("G_a"), ref("G_b")));
+    createReaction(m, "R_2", op(new Or(3, 1), ref("G_a"), op(new And(3, 1), ref("G_b"), ref("G_c"))));
+    createReaction(m, "R_3", null);
+    createReaction(m, "R_4", ref("G_x"));
+    return GeneRuleProgram.compile(m);
+  }
+
+  @Test
+  public void prefersIdentifiersOverLabels() {
+    GeneRuleProgram program = compile();
+    assertEquals(3, program.getGeneCount());
+    assertEquals(0, program.indexOf("G_a"));
+    assertEquals(0, program.indexOf("a"));
+    assertEquals(2, program.indexOf("G_c"));
+    assertEquals(-1, program.indexOf("c"));
+    assertEquals(-1, program.indexOf("G_x"));
+  }
+
+  @Test
+  public void evaluatesRulesPerTissue() {
+    Map<String, List<String>> genes = new LinkedHashMap<String, List<String>>();
+    genes.put("both", Arrays.asList("a", "G_b"));
+    genes.put("labels", Arrays.asList("b", "G_c", "unknown"));
+    genes.put("none", Collections.<String> emptyList());
+    Map<String, int[]> lists = compile().getReactionLists(genes);
+    assertEquals(Arrays.asList("both", "labels", "none"), Arrays.asList(lists.keySet().toArray()));
+    assertArrayEquals(new int[] {0, 1, 2}, lists.get("both"));
+    assertArrayEquals(new int[] {1, 2}, lists.get("labels"));
+    assertArrayEquals(new int[] {2}, lists.get("none"));
+  }
+
+  @Test
+  public void evaluatesMoreThan64Tissues() {
+    Map<String, List<String>> genes = new LinkedHashMap<String, List<String>>();
+    for (int t = 0; t < 70; t++) {
+      genes.put("t" + t, (t % 2) == 0 ? Arrays.asList("a", "b") : Collections.singletonList("b"));
+    }
+    Map<String, int[]> lists = compile().getReactionLists(genes);
+    for (int t = 0; t < 70; t++) {
+      assertArrayEquals("t" + t, (t % 2) == 0 ? new int[] {0, 1, 2} : new int[] {2}, lists.get("t" + t));
+    }
+  }
+
+}
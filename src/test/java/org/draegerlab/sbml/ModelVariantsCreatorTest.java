@@ -0,0 +1,83 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for reading variants in {@link ModelVariantsCreator}.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class ModelVariantsCreatorTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * @param lines
+   * @return a new CSV file with the given lines.
+   * @throws IOException
+   */
+  private File write(String... lines) throws IOException {
+    File csv = folder.newFile();
+    Files.write(csv.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+    return csv;
+  }
+
+  @Test
+  public void sanitizesFileNames() {
+    assertEquals("knock_out_PGI", ModelVariantsCreator.toFileName("knock out PGI"));
+    assertEquals("_.._etc_passwd", ModelVariantsCreator.toFileName("/../etc/passwd"));
+    assertEquals("v1.2", ModelVariantsCreator.toFileName("v1.2"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsEmptyName() {
+    ModelVariantsCreator.toFileName("");
+  }
+
+  @Test
+  public void groupsChangesByVariant() throws IOException {
+    File csv = write("variant,reaction,reversible,lower,upper",
+      "a,R_1,true,,",
+      "b,R_1,,zero,",
+      "a,R_2,false,,ub");
+    Map<String, List<ReactionEdit>> variants = ModelVariantsCreator.readVariants(csv, ",");
+    assertEquals(Arrays.asList("a", "b"), new ArrayList<String>(variants.keySet()));
+    assertEquals(2, variants.get("a").size());
+    assertEquals("R_2", variants.get("a").get(1).getReactionId());
+    assertEquals("ub", variants.get("a").get(1).getUpperFluxBound());
+    // in the matrix, an empty column leaves the reaction unchanged
+    assertNull(variants.get("b").get(0).getReversible());
+    assertEquals("zero", variants.get("b").get(0).getLowerFluxBound());
+  }
+
+  @Test(expected = IOException.class)
+  public void rejectsCollidingFileNames() throws IOException {
+    ModelVariantsCreator.readVariants(write("variant,reaction", "KO 1,R_1", "ko_1,R_2"), ",");
+  }
+
+  @Test
+  public void readsEmptyReversibleAsFalse() throws IOException {
+    List<ReactionEdit> edits = ModelVariantsCreator.readEdits(write("reaction,reversible", "R_1,", "R_2,true"), ",");
+    assertEquals(Boolean.FALSE, edits.get(0).getReversible());
+    assertEquals(Boolean.TRUE, edits.get(1).getReversible());
+  }
+
+}
@@ -0,0 +1,66 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sbml.jsbml.Model;
+import org.sbml.jsbml.SBMLDocument;
+
+/**
+ * Tests for {@link Pipeline}.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class PipelineTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void appliesStagesWithSameNameInOrder() throws XMLStreamException, IOException {
+    final List<String> applied = new ArrayList<String>();
+    new Pipeline().addStage("s", doc -> applied.add("first"))
+      .addStage("t", doc -> applied.add("second"))
+      .addStage("s", doc -> applied.add("third"))
+      .run(new SBMLDocument(3, 1));
+    assertEquals(Arrays.asList("first", "second", "third"), applied);
+  }
+
+  @Test
+  public void setsVariants() throws XMLStreamException, IOException {
+    File csv = folder.newFile("changes.csv");
+    Files.write(csv.toPath(), Arrays.asList("reaction;reversible", "R_1;false"), StandardCharsets.UTF_8);
+    SBMLDocument doc = new SBMLDocument(3, 1);
+    Model m = doc.createModel("m");
+    m.createReaction("R_1").setReversible(true);
+    new Pipeline().add("set-variants", csv.getPath()).run(doc);
+    assertFalse(m.getReaction("R_1").getReversible());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsUnknownStage() {
+    new Pipeline().add("unknown", null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsMissingArgument() {
+    Pipeline.createStage("fix-layout-ids", null);
+  }
+
+}
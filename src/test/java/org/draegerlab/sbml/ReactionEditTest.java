@@ -0,0 +1,93 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.sbml.jsbml.Model;
+import org.sbml.jsbml.Reaction;
+import org.sbml.jsbml.SBMLDocument;
+import org.sbml.jsbml.ext.fbc.FBCConstants;
+import org.sbml.jsbml.ext.fbc.FBCReactionPlugin;
+
+/**
+ * Tests for {@link ReactionEdit}.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class ReactionEditTest {
+
+  @Test
+  public void parsesAllColumns() {
+    ReactionEdit edit = ReactionEdit.parse(new String[] {"v1", " R_PGI ", "true", "lb", "ub"}, 1);
+    assertEquals("R_PGI", edit.getReactionId());
+    assertEquals(Boolean.TRUE, edit.getReversible());
+    assertEquals("lb", edit.getLowerFluxBound());
+    assertEquals("ub", edit.getUpperFluxBound());
+  }
+
+  @Test
+  public void leavesEmptyColumnsUnchanged() {
+    ReactionEdit edit = ReactionEdit.parse(new String[] {"R_PGI", " ", ""}, 0);
+    assertNull(edit.getReversible());
+    assertNull(edit.getLowerFluxBound());
+    assertNull(edit.getUpperFluxBound());
+  }
+
+  @Test
+  public void appliesDefaultReversibility() {
+    assertEquals(Boolean.FALSE, ReactionEdit.parse(new String[] {"R_PGI", ""}, 0, Boolean.FALSE).getReversible());
+    assertEquals(Boolean.TRUE, ReactionEdit.parse(new String[] {"R_PGI", "true"}, 0, Boolean.FALSE).getReversible());
+  }
+
+  /**
+   * @return a model with a reversible reaction {@code R_PGI} with bounds
+   *         {@code lb} and {@code ub}.
+   */
+  private static Model createModel() {
+    Model m = new SBMLDocument(3, 1).createModel("m");
+    for (String id : new String[] {"lb", "ub", "zero"}) {
+      m.createParameter(id).setConstant(true);
+    }
+    Reaction r = m.createReaction("R_PGI");
+    r.setReversible(true);
+    FBCReactionPlugin rplug = (FBCReactionPlugin) r.getPlugin(FBCConstants.namespaceURI_L3V1V2);
+    rplug.setLowerFluxBound("lb");
+    rplug.setUpperFluxBound("ub");
+    return m;
+  }
+
+  @Test
+  public void applyReturnsInverse() {
+    Model m = createModel();
+    Reaction r = m.getReaction("R_PGI");
+    FBCReactionPlugin rplug = (FBCReactionPlugin) r.getExtension(FBCConstants.shortLabel);
+    ReactionEdit undo = new ReactionEdit("R_PGI", Boolean.FALSE, "zero", "").apply(m);
+    assertFalse(r.getReversible());
+    assertEquals("zero", rplug.getLowerFluxBound());
+    assertFalse(rplug.isSetUpperFluxBound());
+
+    undo.apply(m);
+    assertTrue(r.getReversible());
+    assertEquals("lb", rplug.getLowerFluxBound());
+    assertEquals("ub", rplug.getUpperFluxBound());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsUnknownReaction() {
+    new ReactionEdit("R_unknown", Boolean.TRUE, null, null).apply(createModel());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsBoundWithoutFbc() {
+    Model m = new SBMLDocument(3, 1).createModel("m");
+    m.createReaction("R_PGI");
+    new ReactionEdit("R_PGI", null, "lb", null).apply(m);
+  }
+
+}
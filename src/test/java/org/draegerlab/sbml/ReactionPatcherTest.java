@@ -0,0 +1,144 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link ReactionPatcher}.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class ReactionPatcherTest {
+
+  private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+      + "<sbml xmlns=\"http://www.sbml.org/sbml/level3/version1/core\" level=\"3\" version=\"1\"";
+
+  /** A model with fbc version 2 declared at the root */
+  private static final String MODEL = HEADER
+      + " xmlns:fbc=\"http://www.sbml.org/sbml/level3/version1/fbc/version2\" fbc:required=\"false\">"
+      + "<model id=\"m\"><listOfReactions>"
+      + "<reaction id=\"R_1\" reversible=\"true\" fast=\"false\" fbc:lowerFluxBound=\"lb\" fbc:upperFluxBound=\"ub\"/>"
+      + "<reaction id=\"R_2\" reversible=\"false\" fast=\"false\" fbc:upperFluxBound=\"ub\"/>"
+      + "</listOfReactions></model></sbml>";
+
+  private static final Pattern ATTRIBUTE = Pattern.compile("[\\w:]+=\"[^\"]*\"");
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * @param xml
+   * @param edits
+   * @return the patched document.
+   * @throws XMLStreamException
+   */
+  private static String patch(String xml, ReactionEdit... edits) throws XMLStreamException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new ReactionPatcher(Arrays.asList(edits)).patch(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), out);
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @param xml
+   * @param reactionId
+   * @return the attributes of the reaction with the given identifier in
+   *         alphabetical order, because the writer may reorder them.
+   */
+  private static Set<String> reaction(String xml, String reactionId) {
+    int id = xml.indexOf("id=\"" + reactionId + "\"");
+    String tag = xml.substring(xml.lastIndexOf("<reaction", id), xml.indexOf('>', id));
+    Set<String> attributes = new TreeSet<String>();
+    Matcher matcher = ATTRIBUTE.matcher(tag);
+    while (matcher.find()) {
+      attributes.add(matcher.group());
+    }
+    return attributes;
+  }
+
+  @Test
+  public void changesOnlyGivenAttributes() throws XMLStreamException {
+    String xml = patch(MODEL, new ReactionEdit("R_1", Boolean.FALSE, "zero", null));
+    assertEquals(new TreeSet<String>(Arrays.asList("id=\"R_1\"", "reversible=\"false\"", "fast=\"false\"",
+      "fbc:lowerFluxBound=\"zero\"", "fbc:upperFluxBound=\"ub\"")), reaction(xml, "R_1"));
+    assertEquals(reaction(MODEL, "R_2"), reaction(xml, "R_2"));
+  }
+
+  @Test
+  public void addsAndRemovesBounds() throws XMLStreamException {
+    String xml = patch(MODEL, new ReactionEdit("R_1", null, null, ""), new ReactionEdit("R_2", null, "zero", null));
+    assertFalse(reaction(xml, "R_1").contains("fbc:upperFluxBound=\"ub\""));
+    assertTrue(reaction(xml, "R_1").contains("fbc:lowerFluxBound=\"lb\""));
+    assertTrue(reaction(xml, "R_2").contains("fbc:lowerFluxBound=\"zero\""));
+  }
+
+  @Test
+  public void mergesEditsOfSameReaction() throws XMLStreamException {
+    String xml = patch(MODEL, new ReactionEdit("R_1", Boolean.FALSE, null, null), new ReactionEdit("R_1", null, "zero", null));
+    Set<String> r1 = reaction(xml, "R_1");
+    assertTrue(r1.toString(), r1.contains("reversible=\"false\""));
+    assertTrue(r1.toString(), r1.contains("fbc:lowerFluxBound=\"zero\""));
+  }
+
+  @Test
+  public void findsNamespaceDeclaredOnReaction() throws XMLStreamException {
+    String model = HEADER + "><model id=\"m\"><listOfReactions>"
+        + "<reaction xmlns:f=\"http://www.sbml.org/sbml/level3/version1/fbc/version2\" id=\"R_1\" reversible=\"true\" fast=\"false\"/>"
+        + "</listOfReactions></model></sbml>";
+    Set<String> r1 = reaction(patch(model, new ReactionEdit("R_1", null, "zero", null)), "R_1");
+    assertTrue(r1.toString(), r1.contains("f:lowerFluxBound=\"zero\""));
+  }
+
+  @Test(expected = XMLStreamException.class)
+  public void rejectsFbcVersion1() throws XMLStreamException {
+    String model = HEADER + " xmlns:fbc=\"http://www.sbml.org/sbml/level3/version1/fbc/version1\">"
+        + "<model id=\"m\"><listOfReactions><reaction id=\"R_1\" reversible=\"true\" fast=\"false\"/>"
+        + "</listOfReactions></model></sbml>";
+    patch(model, new ReactionEdit("R_1", null, "zero", null));
+  }
+
+  @Test
+  public void patchesCompressedFiles() throws IOException, XMLStreamException {
+    File in = folder.newFile("model.xml.gz");
+    GZIPOutputStream gz = new GZIPOutputStream(Files.newOutputStream(in.toPath()));
+    gz.write(MODEL.getBytes(StandardCharsets.UTF_8));
+    gz.close();
+    File out = new File(folder.getRoot(), "patched.xml.gz");
+    ReactionPatcher patcher = new ReactionPatcher(Collections.singletonList(new ReactionEdit("R_2", Boolean.TRUE, null, null)));
+    assertEquals(1, patcher.patch(in, out));
+    GZIPInputStream is = new GZIPInputStream(Files.newInputStream(out.toPath()));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte buffer[] = new byte[8192];
+    for (int n; (n = is.read(buffer)) != -1;) {
+      bytes.write(buffer, 0, n);
+    }
+    is.close();
+    Set<String> r2 = reaction(new String(bytes.toByteArray(), StandardCharsets.UTF_8), "R_2");
+    assertTrue(r2.toString(), r2.contains("reversible=\"true\""));
+  }
+
+}
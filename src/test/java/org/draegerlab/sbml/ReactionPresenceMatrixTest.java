@@ -0,0 +1,123 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link ReactionPresenceMatrix}.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class ReactionPresenceMatrixTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * @param count
+   * @return the identifiers {@code R_0} to {@code R_<count - 1>}.
+   */
+  private static List<String> reactionIds(int count) {
+    List<String> ids = new ArrayList<String>(count);
+    for (int i = 0; i < count; i++) {
+      ids.add("R_" + i);
+    }
+    return ids;
+  }
+
+  /**
+   * @return a matrix over 70 reactions, such that the bitmaps span two words.
+   */
+  private static ReactionPresenceMatrix createMatrix() {
+    Map<String, int[]> lists = new LinkedHashMap<String, int[]>();
+    lists.put("liver", new int[] {0, 1, 2, 64, 69});
+    lists.put("brain", new int[] {0, 2, 3, 69});
+    lists.put("heart", new int[] {0, 69});
+    return ReactionPresenceMatrix.fromIndices(reactionIds(70), lists);
+  }
+
+  @Test
+  public void computesSetOperations() {
+    ReactionPresenceMatrix matrix = createMatrix();
+    int liver = matrix.indexOf("liver"), brain = matrix.indexOf("brain");
+    assertEquals(5, matrix.count(liver));
+    assertTrue(matrix.contains(liver, 64));
+    assertFalse(matrix.contains(brain, 64));
+    assertEquals(3, matrix.intersection(liver, brain));
+    assertEquals(6, matrix.union(liver, brain));
+    assertEquals(0.5, matrix.jaccard(liver, brain), 0d);
+    assertEquals(Arrays.asList("R_0", "R_69"), matrix.getReactionIds(matrix.core()));
+    assertEquals(Arrays.asList("R_1", "R_64"), matrix.getReactionIds(matrix.unique(liver)));
+    assertEquals(Collections.singletonList("R_3"), matrix.getReactionIds(matrix.unique(brain)));
+  }
+
+  @Test
+  public void computesSymmetricSimilarity() {
+    ReactionPresenceMatrix matrix = createMatrix();
+    double similarity[][] = matrix.similarity();
+    for (int i = 0; i < similarity.length; i++) {
+      assertEquals(1d, similarity[i][i], 0d);
+      for (int j = 0; j < similarity.length; j++) {
+        assertEquals(matrix.jaccard(i, j), similarity[j][i], 0d);
+      }
+    }
+  }
+
+  @Test
+  public void keepsCoreWithinReactions() {
+    // no rows: all reactions are in the core, but no bits beyond the last one
+    ReactionPresenceMatrix matrix = ReactionPresenceMatrix.fromIndices(reactionIds(3), new LinkedHashMap<String, int[]>());
+    assertEquals(reactionIds(3), matrix.getReactionIds(matrix.core()));
+  }
+
+  @Test
+  public void writesAndReadsFile() throws IOException {
+    ReactionPresenceMatrix matrix = createMatrix();
+    File file = new File(folder.getRoot(), "tissues" + ReactionPresenceMatrix.EXTENSION);
+    matrix.write(file);
+    ReactionPresenceMatrix copy = ReactionPresenceMatrix.read(file);
+    assertEquals(matrix.getReactionIds(), copy.getReactionIds());
+    assertEquals(matrix.getRowCount(), copy.getRowCount());
+    for (int i = 0; i < matrix.getRowCount(); i++) {
+      assertEquals(matrix.getRowName(i), copy.getRowName(i));
+      assertArrayEquals(matrix.getRow(i), copy.getRow(i));
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void rejectsForeignFile() throws IOException {
+    File file = folder.newFile("other.rpm");
+    Files.write(file.toPath(), new byte[16]);
+    ReactionPresenceMatrix.read(file);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsIndexOutOfRange() {
+    ReactionPresenceMatrix.fromIndices(reactionIds(3), Collections.singletonMap("liver", new int[] {3}));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsUnknownRow() {
+    createMatrix().indexOf("lung");
+  }
+
+}
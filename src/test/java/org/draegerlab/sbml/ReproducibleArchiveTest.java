@@ -0,0 +1,142 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link ReproducibleArchive}.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class ReproducibleArchiveTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * @param name
+   * @param time the modification time of all entries.
+   * @param names the entries in this order, each with its name as content.
+   * @return a new ZIP file with a comment.
+   * @throws IOException
+   */
+  private File createZip(String name, long time, String... names) throws IOException {
+    File file = new File(folder.getRoot(), name);
+    ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file));
+    try {
+      zip.setComment("written at " + time);
+      for (String entryName : names) {
+        ZipEntry entry = new ZipEntry(entryName);
+        entry.setTime(time);
+        entry.setComment(entryName);
+        zip.putNextEntry(entry);
+        zip.write(entryName.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+      }
+    } finally {
+      zip.close();
+    }
+    return file;
+  }
+
+  /**
+   * @param zone the default time zone while normalizing.
+   * @param file
+   * @param date
+   * @throws IOException
+   */
+  private static void normalize(String zone, File file, Date date) throws IOException {
+    TimeZone defaultZone = TimeZone.getDefault();
+    TimeZone.setDefault(TimeZone.getTimeZone(zone));
+    try {
+      ReproducibleArchive.normalize(file, date);
+    } finally {
+      TimeZone.setDefault(defaultZone);
+    }
+  }
+
+  @Test
+  public void makesArchivesByteIdentical() throws IOException {
+    File a = createZip("a.zip", System.currentTimeMillis(), "model.sbml", "manifest.xml", "metadata.rdf");
+    File b = createZip("b.zip", 0L, "metadata.rdf", "model.sbml", "manifest.xml");
+    ReproducibleArchive.normalize(a, ReproducibleArchive.DEFAULT_DATE);
+    ReproducibleArchive.normalize(b, ReproducibleArchive.DEFAULT_DATE);
+    assertArrayEquals(Files.readAllBytes(a.toPath()), Files.readAllBytes(b.toPath()));
+
+    ZipFile zip = new ZipFile(a);
+    try {
+      List<String> names = new ArrayList<String>();
+      for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements();) {
+        names.add(entries.nextElement().getName());
+      }
+      assertEquals(Arrays.asList("manifest.xml", "metadata.rdf", "model.sbml"), names);
+      assertNull(zip.getComment());
+    } finally {
+      zip.close();
+    }
+    assertEquals(Collections.singletonList("a.zip"), Arrays.asList(folder.getRoot().list((dir, name) -> name.startsWith("a."))));
+  }
+
+  @Test
+  public void doesNotDependOnTimeZone() throws IOException {
+    File a = createZip("a.zip", 0L, "model.sbml", "manifest.xml");
+    File b = createZip("b.zip", 0L, "model.sbml", "manifest.xml");
+    // a date in summer time of one zone, but not of the other
+    Date date = new Date(1593561600000L);
+    normalize("America/New_York", a, date);
+    normalize("Asia/Tokyo", b, date);
+    assertArrayEquals(Files.readAllBytes(a.toPath()), Files.readAllBytes(b.toPath()));
+  }
+
+  @Test
+  public void rejectsDateInDaylightSavingGap() throws IOException {
+    File a = createZip("a.zip", 0L, "model.sbml");
+    byte before[] = Files.readAllBytes(a.toPath());
+    try {
+      // 2021-03-28T02:30 does not exist in Berlin
+      normalize("Europe/Berlin", a, new Date(1616898600000L));
+      fail("Expected an IOException");
+    } catch (IOException exc) {
+      assertArrayEquals(before, Files.readAllBytes(a.toPath()));
+    }
+  }
+
+  @Test
+  public void keepsNoTemporaryFileOnFailure() throws IOException {
+    File damaged = new File(folder.getRoot(), "damaged.zip");
+    Files.write(damaged.toPath(), "not a zip file".getBytes(StandardCharsets.UTF_8));
+    try {
+      ReproducibleArchive.normalize(damaged, ReproducibleArchive.DEFAULT_DATE);
+      fail("Expected an IOException");
+    } catch (IOException exc) {
+      assertFalse(new File(folder.getRoot(), "damaged.zip.tmp").exists());
+    }
+  }
+
+}
@@ -0,0 +1,92 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sbml.jsbml.Model;
+import org.sbml.jsbml.SBMLDocument;
+import org.sbml.jsbml.SBMLReader;
+
+/**
+ * Tests for {@link SBMLOutput}.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class SBMLOutputTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * @return a document with one compartment and two species.
+   */
+  private static SBMLDocument createDocument() {
+    SBMLDocument doc = new SBMLDocument(3, 1);
+    Model m = doc.createModel("m");
+    m.createCompartment("c").setConstant(true);
+    m.createSpecies("A", m.getCompartment("c"));
+    m.createSpecies("B", m.getCompartment("c"));
+    return doc;
+  }
+
+  @Test
+  public void selectsModeByOption() {
+    assertEquals(SBMLOutput.DEFAULT_MODE, SBMLOutput.getMode(new Arguments("in.xml")));
+    assertEquals(SBMLOutput.Mode.COMPACT, SBMLOutput.getMode(new Arguments("--output=compact")));
+    assertEquals(SBMLOutput.Mode.TIDY, SBMLOutput.getMode(new Arguments("--output=TIDY")));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsUnknownMode() {
+    SBMLOutput.getMode(new Arguments("--output=fancy"));
+  }
+
+  @Test
+  public void writesCompactWithoutIndentation() throws XMLStreamException, IOException {
+    ByteArrayOutputStream compact = new ByteArrayOutputStream();
+    SBMLOutput.write(createDocument(), compact, SBMLOutput.Mode.COMPACT);
+    ByteArrayOutputStream tidy = new ByteArrayOutputStream();
+    SBMLOutput.write(createDocument(), tidy, SBMLOutput.Mode.TIDY);
+    assertFalse(new String(compact.toByteArray(), StandardCharsets.UTF_8).contains("\n  <"));
+    assertTrue(new String(tidy.toByteArray(), StandardCharsets.UTF_8).contains("\n  <"));
+    assertTrue(compact.size() < tidy.size());
+  }
+
+  @Test
+  public void writesReadableFilesInAllModes() throws XMLStreamException, IOException {
+    for (SBMLOutput.Mode mode : SBMLOutput.Mode.values()) {
+      for (String name : new String[] {"model.xml", "model.xml.gz"}) {
+        File file = new File(folder.getRoot(), mode + "_" + name);
+        SBMLOutput.write(createDocument(), file, mode);
+        InputStream is = Files.newInputStream(file.toPath());
+        try {
+          if (name.endsWith(".gz")) {
+            is = new GZIPInputStream(is);
+          }
+          Model m = SBMLReader.read(is).getModel();
+          assertEquals(file.getName(), 2, m.getSpeciesCount());
+        } finally {
+          is.close();
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,130 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link ShardedArchiveWriter}. Volumes are not packed, but only
+ * recorded by a {@link TissueModelExtractor} that writes the names of their
+ * models to the volume file.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class ShardedArchiveWriterTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Writes the names of the models of each volume instead of an archive and
+   * fails for the volume with the given name.
+   */
+  private static class RecordingExtractor extends TissueModelExtractor {
+
+    private final String failingVolume;
+
+    /**
+     * @param baseFile
+     * @param targetDir
+     * @param failingVolume the name of the volume that cannot be written or
+     *        {@code null}.
+     * @throws Exception
+     */
+    public RecordingExtractor(File baseFile, File targetDir, String failingVolume) throws Exception {
+      super(baseFile, null, "base", targetDir, true, SBMLOutput.DEFAULT_MODE);
+      this.failingVolume = failingVolume;
+    }
+
+    @Override
+    public void packVolume(File archiveFile, List<File> listOfModels) throws IOException {
+      List<String> names = new ArrayList<String>();
+      for (File model : listOfModels) {
+        names.add(model.getName());
+      }
+      Files.write(archiveFile.toPath(), names, StandardCharsets.UTF_8);
+      if (archiveFile.getName().equals(failingVolume)) {
+        throw new IOException("Disk full");
+      }
+    }
+  }
+
+  /**
+   * @param failingVolume
+   * @return an extractor whose target is the temporary folder.
+   * @throws Exception
+   */
+  private TissueModelExtractor createExtractor(String failingVolume) throws Exception {
+    File base = folder.newFile("input.xml");
+    Files.write(base.toPath(), ("<sbml xmlns=\"http://www.sbml.org/sbml/level3/version1/core\" level=\"3\" version=\"1\">"
+        + "<model id=\"base\"/></sbml>").getBytes(StandardCharsets.UTF_8));
+    return new RecordingExtractor(base, folder.newFolder("out"), failingVolume);
+  }
+
+  @Test
+  public void distributesModelsOverVolumes() throws Exception {
+    File out = new File(folder.getRoot(), "out");
+    ShardedArchiveWriter shards = new ShardedArchiveWriter(createExtractor(null), out, "tissues", 2, 2);
+    for (String tissue : new String[] {"liver", "brain", "heart"}) {
+      shards.add(tissue, new File(out, tissue + ".sbml"));
+    }
+    List<File> volumes = shards.finish();
+    assertEquals(Arrays.asList(new File(out, "tissues-1.omex"), new File(out, "tissues-2.omex")), volumes);
+    assertEquals(Arrays.asList("liver.sbml", "brain.sbml"), Files.readAllLines(volumes.get(0).toPath(), StandardCharsets.UTF_8));
+    assertEquals(Collections.singletonList("heart.sbml"), Files.readAllLines(volumes.get(1).toPath(), StandardCharsets.UTF_8));
+    assertEquals(Arrays.asList("tissue\tvolume\tentry", "liver\ttissues-1.omex\tliver.sbml",
+      "brain\ttissues-1.omex\tbrain.sbml", "heart\ttissues-2.omex\theart.sbml"),
+      Files.readAllLines(new File(out, "tissues-index.tsv").toPath(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void writesBaseModelWithoutTissues() throws Exception {
+    File out = new File(folder.getRoot(), "out");
+    List<File> volumes = new ShardedArchiveWriter(createExtractor(null), out, "tissues", 2, 1).finish();
+    assertEquals(Collections.singletonList(new File(out, "tissues-1.omex")), volumes);
+  }
+
+  @Test
+  public void deletesAllVolumesIfOneFails() throws Exception {
+    File out = new File(folder.getRoot(), "out");
+    ShardedArchiveWriter shards = new ShardedArchiveWriter(createExtractor("tissues-2.omex"), out, "tissues", 1, 2);
+    for (String tissue : new String[] {"liver", "brain", "heart"}) {
+      shards.add(tissue, new File(out, tissue + ".sbml"));
+    }
+    try {
+      shards.finish();
+      fail("Expected an IOException");
+    } catch (IOException exc) {
+      assertEquals("Disk full", exc.getCause().getMessage());
+    }
+    for (int k = 1; k <= 3; k++) {
+      assertFalse(new File(out, "tissues-" + k + ".omex").exists());
+    }
+    assertFalse(new File(out, "tissues-index.tsv").exists());
+    // the copy of the base model is left to the caller
+    assertTrue(new File(out, "base.sbml").exists());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsEmptyShards() throws Exception {
+    new ShardedArchiveWriter(createExtractor(null), folder.getRoot(), "tissues", 0, 1);
+  }
+
+}
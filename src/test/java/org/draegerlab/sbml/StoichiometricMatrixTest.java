@@ -0,0 +1,149 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sbml.jsbml.Model;
+import org.sbml.jsbml.Reaction;
+import org.sbml.jsbml.SBMLDocument;
+import org.sbml.jsbml.Species;
+import org.sbml.jsbml.ext.fbc.FBCConstants;
+import org.sbml.jsbml.ext.fbc.FBCModelPlugin;
+import org.sbml.jsbml.ext.fbc.FBCReactionPlugin;
+import org.sbml.jsbml.ext.fbc.FluxObjective;
+import org.sbml.jsbml.ext.fbc.Objective;
+
+/**
+ * Tests for {@link StoichiometricMatrix}.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class StoichiometricMatrixTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * @return a model with the reactions {@code R_1: A -> 2 B} with bounds 0 and
+   *         1000, which is the objective, and {@code R_2: B + X -> A + B}
+   *         without bounds, where {@code X} is a boundary species.
+   */
+  private static Model createModel() {
+    Model m = new SBMLDocument(3, 1).createModel("m");
+    m.createCompartment("c").setConstant(true);
+    for (String id : new String[] {"A", "B", "X"}) {
+      Species s = m.createSpecies(id, m.getCompartment("c"));
+      s.setBoundaryCondition(id.equals("X"));
+    }
+    m.createParameter("zero").setValue(0d);
+    m.createParameter("ub").setValue(1000d);
+    Reaction r1 = m.createReaction("R_1");
+    r1.createReactant(m.getSpecies("A"));
+    r1.createProduct(m.getSpecies("B")).setStoichiometry(2d);
+    FBCReactionPlugin rplug = (FBCReactionPlugin) r1.getPlugin(FBCConstants.namespaceURI_L3V1V2);
+    rplug.setLowerFluxBound("zero");
+    rplug.setUpperFluxBound("ub");
+    Reaction r2 = m.createReaction("R_2");
+    r2.createReactant(m.getSpecies("B"));
+    r2.createReactant(m.getSpecies("X"));
+    r2.createProduct(m.getSpecies("A"));
+    r2.createProduct(m.getSpecies("B"));
+    FBCModelPlugin fbc = (FBCModelPlugin) m.getPlugin(FBCConstants.namespaceURI_L3V1V2);
+    Objective objective = fbc.createObjective("obj");
+    objective.setType(Objective.Type.MAXIMIZE);
+    FluxObjective fo = objective.createFluxObjective();
+    fo.setReaction("R_1");
+    fo.setCoefficient(1d);
+    fbc.setActiveObjective(objective.getId());
+    return m;
+  }
+
+  /**
+   * @param buffer
+   * @param offset
+   * @param count
+   * @return the doubles at the given position.
+   */
+  private static double[] doubles(ByteBuffer buffer, long offset, int count) {
+    double values[] = new double[count];
+    buffer.position((int) offset);
+    buffer.asDoubleBuffer().get(values);
+    return values;
+  }
+
+  @Test
+  public void writesDocumentedLayout() throws IOException {
+    Map<String, int[]> tissues = new LinkedHashMap<String, int[]>();
+    tissues.put("liver", new int[] {0, 1});
+    tissues.put("brain", new int[] {1});
+    File file = new File(folder.getRoot(), "m" + StoichiometricMatrix.EXTENSION);
+    StoichiometricMatrix.fromModel(createModel(), tissues).write(file);
+
+    ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+    assertEquals(0x53544f49, buffer.getInt(0));
+    assertEquals(2, buffer.getInt(8));
+    assertEquals(2, buffer.getInt(12));
+    assertEquals(2, buffer.getInt(16));
+    assertEquals(1, buffer.getInt(20));
+    assertEquals(3L, buffer.getLong(24));
+    long offsets[] = new long[8];
+    for (int i = 0; i < offsets.length; i++) {
+      offsets[i] = buffer.getLong(32 + 8 * i);
+      assertEquals(0L, offsets[i] % 8);
+    }
+    int colPtr[] = new int[3], rowIdx[] = new int[3];
+    buffer.position((int) offsets[0]);
+    buffer.asIntBuffer().get(colPtr);
+    buffer.position((int) offsets[1]);
+    buffer.asIntBuffer().get(rowIdx);
+    // B cancels out in R_2, the boundary species X is no row
+    assertArrayEquals(new int[] {0, 2, 3}, colPtr);
+    assertArrayEquals(new int[] {0, 1, 0}, rowIdx);
+    assertArrayEquals(new double[] {-1d, 2d, 1d}, doubles(buffer, offsets[2], 3), 0d);
+    assertArrayEquals(new double[] {0d, Double.NEGATIVE_INFINITY}, doubles(buffer, offsets[3], 2), 0d);
+    assertArrayEquals(new double[] {1000d, Double.POSITIVE_INFINITY}, doubles(buffer, offsets[4], 2), 0d);
+    assertArrayEquals(new double[] {1d, 0d}, doubles(buffer, offsets[5], 2), 0d);
+    assertEquals(3L, buffer.getLong((int) offsets[6]));
+    assertEquals(2L, buffer.getLong((int) offsets[6] + 8));
+  }
+
+  @Test
+  public void readsWrittenFile() throws IOException {
+    File file = new File(folder.getRoot(), "m" + StoichiometricMatrix.EXTENSION);
+    StoichiometricMatrix.fromModel(createModel(), Collections.singletonMap("liver", new int[] {0})).write(file);
+    StoichiometricMatrix matrix = StoichiometricMatrix.read(file);
+    assertEquals(Arrays.asList("A", "B"), matrix.getSpeciesIds());
+    assertEquals(Arrays.asList("R_1", "R_2"), matrix.getReactionIds());
+    assertEquals(Collections.singletonList("liver"), matrix.getTissueNames());
+    assertEquals(3, matrix.getNonZeroCount());
+  }
+
+  @Test(expected = IOException.class)
+  public void rejectsForeignFile() throws IOException {
+    File file = folder.newFile("other.stoich");
+    Files.write(file.toPath(), new byte[96]);
+    StoichiometricMatrix.read(file);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsIndexOutOfRange() {
+    StoichiometricMatrix.fromModel(createModel(), Collections.singletonMap("liver", new int[] {2}));
+  }
+
+}
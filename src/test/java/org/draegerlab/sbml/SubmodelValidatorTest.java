@@ -0,0 +1,89 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sbml.jsbml.Model;
+import org.sbml.jsbml.SBMLDocument;
+
+/**
+ * Tests for {@link SubmodelValidator}.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class SubmodelValidatorTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * @return a document whose species refers to an undefined compartment.
+   */
+  private static SBMLDocument createInvalidDocument() {
+    SBMLDocument doc = new SBMLDocument(3, 1);
+    Model m = doc.createModel("invalid");
+    m.createSpecies("A").setCompartment("nowhere");
+    return doc;
+  }
+
+  @Test
+  public void configuresModeByOption() {
+    assertNull(SubmodelValidator.configure(new Arguments("in.xml")));
+    assertNull(SubmodelValidator.configure(new Arguments("--validate=off")));
+    SubmodelValidator validator = SubmodelValidator.configure(new Arguments("--validate"));
+    validator.shutdownNow();
+    assertEquals(SubmodelValidator.Mode.ANNOTATE, validator.getMode());
+    validator = SubmodelValidator.configure(new Arguments("--validate=fail", "--validate-threads=1"));
+    validator.shutdownNow();
+    assertEquals(SubmodelValidator.Mode.FAIL, validator.getMode());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsModeOff() {
+    new SubmodelValidator(SubmodelValidator.Mode.OFF, 1);
+  }
+
+  @Test
+  public void reportsProblemsInSubmissionOrder() throws IOException {
+    // a single thread with a small queue, so that the caller validates, too
+    SubmodelValidator validator = new SubmodelValidator(SubmodelValidator.Mode.ANNOTATE, 1);
+    for (int i = 0; i < 5; i++) {
+      SBMLDocument valid = new SBMLDocument(3, 1);
+      valid.createModel("valid_" + i);
+      validator.submit("valid_" + i, valid);
+    }
+    validator.submit("invalid", createInvalidDocument());
+    File report = new File(folder.getRoot(), SubmodelValidator.REPORT);
+    int count = validator.writeReport(report);
+    assertTrue(count > 0);
+
+    List<String> lines = Files.readAllLines(report.toPath(), StandardCharsets.UTF_8);
+    assertEquals("model\tseverity\tcode\tline\tcolumn\tmessage", lines.get(0));
+    assertEquals(count + 1, lines.size());
+    for (String line : lines.subList(1, lines.size())) {
+      assertTrue(line, line.startsWith("invalid\t"));
+      assertEquals(line, 6, line.split("\t").length);
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void failsIfValidationFails() throws IOException {
+    SubmodelValidator validator = new SubmodelValidator(SubmodelValidator.Mode.FAIL, 1);
+    validator.submit("missing", null);
+    validator.writeReport(new File(folder.getRoot(), SubmodelValidator.REPORT));
+  }
+
+}
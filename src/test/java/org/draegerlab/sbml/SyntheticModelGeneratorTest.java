@@ -0,0 +1,131 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sbml.jsbml.Model;
+import org.sbml.jsbml.SBMLDocument;
+import org.sbml.jsbml.ext.fbc.FBCConstants;
+import org.sbml.jsbml.ext.fbc.FBCModelPlugin;
+import org.sbml.jsbml.ext.layout.Layout;
+import org.sbml.jsbml.ext.layout.LayoutConstants;
+import org.sbml.jsbml.ext.layout.LayoutModelPlugin;
+import org.sbml.jsbml.ext.layout.ReactionGlyph;
+
+/**
+ * Tests for {@link SyntheticModelGenerator}.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class SyntheticModelGeneratorTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * @param doc
+   * @return the compact serialization of the document.
+   * @throws XMLStreamException
+   * @throws IOException
+   */
+  private static byte[] toBytes(SBMLDocument doc) throws XMLStreamException, IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SBMLOutput.write(doc, out, SBMLOutput.Mode.COMPACT);
+    return out.toByteArray();
+  }
+
+  @Test
+  public void createsRequestedModel() {
+    Model m = new SyntheticModelGenerator(50, 40, 30, 2, 42L).createModel("synthetic").getModel();
+    assertEquals(50, m.getReactionCount());
+    assertEquals(40, m.getSpeciesCount());
+    FBCModelPlugin fbc = (FBCModelPlugin) m.getExtension(FBCConstants.shortLabel);
+    assertEquals(30, fbc.getGeneProductCount());
+    assertTrue(fbc.getStrict());
+    assertEquals("R_BIOMASS", fbc.getActiveObjectiveInstance().getFluxObjective(0).getReaction());
+  }
+
+  @Test
+  public void isReproducible() throws XMLStreamException, IOException {
+    byte first[] = toBytes(new SyntheticModelGenerator(100, 80, 70, 3, 7L).createModel("m"));
+    byte second[] = toBytes(new SyntheticModelGenerator(100, 80, 70, 3, 7L).createModel("m"));
+    assertArrayEquals(first, second);
+
+    File a = folder.newFile("a.zip"), b = folder.newFile("b.zip");
+    new SyntheticModelGenerator(100, 80, 70, 3, 7L).writeReactionLists(a, 3);
+    new SyntheticModelGenerator(100, 80, 70, 3, 7L).writeReactionLists(b, 3);
+    assertArrayEquals(Files.readAllBytes(a.toPath()), Files.readAllBytes(b.toPath()));
+  }
+
+  @Test
+  public void writesSortedListsWithBiomass() throws IOException {
+    File file = folder.newFile("reactions.zip");
+    new SyntheticModelGenerator(20, 10, 5, 1, 42L).writeReactionLists(file, 4);
+    ZipFile zip = new ZipFile(file);
+    try {
+      assertEquals(4, zip.size());
+      for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements();) {
+        ZipEntry entry = entries.nextElement();
+        byte bytes[] = new byte[(int) entry.getSize()];
+        new DataInputStream(zip.getInputStream(entry)).readFully(bytes);
+        String lines[] = new String(bytes, StandardCharsets.UTF_8).split("\n");
+        for (int i = 1; i < lines.length; i++) {
+          assertTrue(entry.getName(), Integer.parseInt(lines[i - 1]) < Integer.parseInt(lines[i]));
+        }
+        assertEquals(entry.getName(), "20", lines[lines.length - 1]);
+      }
+    } finally {
+      zip.close();
+    }
+  }
+
+  @Test
+  public void createsLayoutWithoutPrefixes() {
+    SyntheticModelGenerator generator = new SyntheticModelGenerator(10, 8, 0, 0, 42L);
+    SBMLDocument doc = generator.createModel("m");
+    SBMLDocument layout = generator.createLayout(doc.getModel());
+    // at least each species glyph, text glyph and reaction glyph is corrected
+    int count = FixLayoutIDs.insertLayout(layout, doc);
+    assertTrue(Integer.toString(count), count >= 2 * 8 + 10);
+    Layout l = ((LayoutModelPlugin) doc.getModel().getPlugin(LayoutConstants.shortLabel)).getLayout(0);
+    for (ReactionGlyph rg : l.getListOfReactionGlyphs()) {
+      assertNotNull(rg.getReaction(), rg.getReactionInstance());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsModelWithoutReactions() {
+    new SyntheticModelGenerator(0, 10, 10, 2, 42L);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsModelWithoutSpecies() {
+    new SyntheticModelGenerator(10, 0, 10, 2, 42L);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsNegativeDepth() {
+    new SyntheticModelGenerator(10, 10, 10, -1, 42L);
+  }
+
+}
@@ -0,0 +1,175 @@
+/**
+ *
+ */
+package org.draegerlab.sbml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sbml.jsbml.Model;
+import org.sbml.jsbml.SBMLDocument;
+import org.sbml.jsbml.ext.comp.CompConstants;
+import org.sbml.jsbml.ext.comp.CompModelPlugin;
+import org.sbml.jsbml.ext.comp.CompSBMLDocumentPlugin;
+import org.sbml.jsbml.ext.comp.ExternalModelDefinition;
+import org.sbml.jsbml.ext.comp.Submodel;
+
+/**
+ * Tests for {@link TissueArchiveReader}.
+ *
+ * @author Andreas Dr&auml;ger
+ */
+public class TissueArchiveReaderTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * @param doc
+   * @return the serialized document.
+   * @throws XMLStreamException
+   * @throws IOException
+   */
+  private static byte[] toBytes(SBMLDocument doc) throws XMLStreamException, IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SBMLOutput.write(doc, out, SBMLOutput.Mode.COMPACT);
+    return out.toByteArray();
+  }
+
+  /**
+   * @param bytes
+   * @return the MD5 checksum of the bytes in hexadecimal notation.
+   * @throws NoSuchAlgorithmException
+   */
+  private static String md5(byte[] bytes) throws NoSuchAlgorithmException {
+    StringBuilder sb = new StringBuilder();
+    for (byte b : MessageDigest.getInstance("MD5").digest(bytes)) {
+      sb.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @param tissue
+   * @param md5 the checksum of the base model.
+   * @return a hierarchical document that refers to the base model and deletes
+   *         reaction {@code R_2}.
+   */
+  private static SBMLDocument createTissue(String tissue, String md5) {
+    SBMLDocument doc = new SBMLDocument(3, 1);
+    CompSBMLDocumentPlugin comp = (CompSBMLDocumentPlugin) doc.getPlugin(CompConstants.shortLabel);
+    ExternalModelDefinition emd = comp.createExternalModelDefinition("base");
+    emd.setSource("./base.sbml");
+    emd.setModelRef("base");
+    emd.setMd5(md5);
+    Model m = doc.createModel(tissue + "_model");
+    m.setName(tissue);
+    Submodel submodel = ((CompModelPlugin) m.getPlugin(CompConstants.shortLabel)).createSubmodel("base_model");
+    submodel.setModelRef("base");
+    submodel.createDeletion().setIdRef("R_2");
+    return doc;
+  }
+
+  /**
+   * Creates an archive with the base model {@code base} and the tissue
+   * {@code liver}.
+   *
+   * @param tissueMd5 the checksum the tissue expects or {@code null} for the
+   *        correct one.
+   * @return the archive.
+   * @throws Exception
+   */
+  private File createArchive(String tissueMd5) throws Exception {
+    SBMLDocument base = new SBMLDocument(3, 1);
+    Model m = base.createModel("base");
+    m.createCompartment("c").setConstant(true);
+    for (String id : new String[] {"R_1", "R_2", "R_3"}) {
+      m.createReaction(id);
+    }
+    byte baseBytes[] = toBytes(base);
+    File archive = new File(folder.getRoot(), "tissues.omex");
+    ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(archive));
+    try {
+      zip.putNextEntry(new ZipEntry("base.sbml"));
+      zip.write(baseBytes);
+      zip.putNextEntry(new ZipEntry("liver.sbml"));
+      zip.write(toBytes(createTissue("liver", tissueMd5 != null ? tissueMd5 : md5(baseBytes))));
+      zip.putNextEntry(new ZipEntry("manifest.xml"));
+      zip.write("<omexManifest/>".getBytes(StandardCharsets.UTF_8));
+    } finally {
+      zip.close();
+    }
+    return archive;
+  }
+
+  @Test
+  public void flattensTissueWithoutUnpacking() throws Exception {
+    TissueArchiveReader reader = new TissueArchiveReader(createArchive(null), 2);
+    try {
+      assertTrue(reader.getNames().contains("liver"));
+      assertTrue(reader.getNames().contains("base"));
+      Model liver = reader.getModel("liver").getModel();
+      assertEquals("liver", liver.getName());
+      assertEquals(2, liver.getReactionCount());
+      assertNull(liver.getReaction("R_2"));
+      assertNotNull(liver.getReaction("R_3"));
+      // also known by its entry name
+      assertEquals(2, reader.getModel("liver.sbml").getModel().getReactionCount());
+      assertEquals(3, reader.getModel("base").getModel().getReactionCount());
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void cachesFlatModels() throws Exception {
+    TissueArchiveReader reader = new TissueArchiveReader(createArchive(null), 1);
+    try {
+      SBMLDocument liver = reader.getModel("liver");
+      assertSame(liver, reader.getModel("liver"));
+      reader.clearCache();
+      assertEquals(2, reader.getModel("liver").getModel().getReactionCount());
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void rejectsChecksumMismatch() throws Exception {
+    TissueArchiveReader reader = new TissueArchiveReader(createArchive("00000000000000000000000000000000"), 1);
+    try {
+      reader.getModel("liver");
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void rejectsUnknownTissue() throws Exception {
+    TissueArchiveReader reader = new TissueArchiveReader(createArchive(null), 1);
+    try {
+      reader.getModel("lung");
+    } finally {
+      reader.close();
+    }
+  }
+
+}